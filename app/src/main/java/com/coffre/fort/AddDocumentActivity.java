@@ -34,7 +34,8 @@ public class AddDocumentActivity extends AppCompatActivity {
     private Button clearAttachmentButton;
     private TextView attachmentSummaryTextView;
 
-    private DatabaseHelper databaseHelper;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
 
     private Uri selectedAttachmentUri;
     private String selectedAttachmentMimeType;
@@ -48,7 +49,7 @@ public class AddDocumentActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_add_document);
 
-        databaseHelper = new DatabaseHelper(this);
+        repository = VaultRepository.getInstance(this);
 
         titleEditText = findViewById(R.id.titleEditText);
         contentEditText = findViewById(R.id.contentEditText);
@@ -91,6 +92,7 @@ public class AddDocumentActivity extends AppCompatActivity {
         clearAttachmentButton.setOnClickListener(v -> clearAttachment());
         saveButton.setOnClickListener(v -> saveDocument());
         cancelButton.setOnClickListener(v -> finish());
+        scope.setFailureListener(() -> saveButton.setEnabled(true));
 
         if (savedInstanceState != null) {
             restoreAttachmentState(savedInstanceState);
@@ -109,6 +111,12 @@ public class AddDocumentActivity extends AppCompatActivity {
         outState.putString(STATE_ATTACHMENT_NAME, selectedAttachmentName);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        scope.cancel();
+    }
+
     private void restoreAttachmentState(Bundle savedInstanceState) {
         String attachmentUriString = savedInstanceState.getString(STATE_ATTACHMENT_URI);
         if (!TextUtils.isEmpty(attachmentUriString)) {
@@ -240,12 +248,14 @@ public class AddDocumentActivity extends AppCompatActivity {
         document.setAttachmentMimeType(selectedAttachmentMimeType);
         document.setAttachmentName(selectedAttachmentName);
 
-        databaseHelper.addDocument(document);
-        if (CategoryUtils.isMessageCategory(this, category)) {
-            MessageEmailDispatcher.dispatch(this, document, title, MessageEmailDispatcher.MessageType.CHAT, content, document.getTimestamp());
-        }
-        Toast.makeText(this, R.string.document_saved, Toast.LENGTH_SHORT).show();
-        finish();
+        saveButton.setEnabled(false);
+        repository.addDocument(scope, document, id -> {
+            if (CategoryUtils.isMessageCategory(this, category)) {
+                MessageEmailDispatcher.dispatch(this, document, title, MessageEmailDispatcher.MessageType.CHAT, content, document.getTimestamp());
+            }
+            Toast.makeText(this, R.string.document_saved, Toast.LENGTH_SHORT).show();
+            finish();
+        });
     }
 
     private String getCurrentCategory() {
@@ -0,0 +1,38 @@
+package com.coffre.fort;
+
+public class ArchiveSummary {
+    private final int archivedCount;
+    private final int archiveAfterDays;
+    private final long lastRunAt;
+    private final int lastRunMoved;
+    private final long lastRunDurationMs;
+
+    public ArchiveSummary(int archivedCount, int archiveAfterDays, long lastRunAt, int lastRunMoved,
+                          long lastRunDurationMs) {
+        this.archivedCount = archivedCount;
+        this.archiveAfterDays = archiveAfterDays;
+        this.lastRunAt = lastRunAt;
+        this.lastRunMoved = lastRunMoved;
+        this.lastRunDurationMs = lastRunDurationMs;
+    }
+
+    public int getArchivedCount() {
+        return archivedCount;
+    }
+
+    public int getArchiveAfterDays() {
+        return archiveAfterDays;
+    }
+
+    public long getLastRunAt() {
+        return lastRunAt;
+    }
+
+    public int getLastRunMoved() {
+        return lastRunMoved;
+    }
+
+    public long getLastRunDurationMs() {
+        return lastRunDurationMs;
+    }
+}
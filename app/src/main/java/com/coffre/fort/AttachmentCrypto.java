@@ -0,0 +1,384 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// File layout: magic, random nonce prefix, then AES-GCM chunks of CHUNK_SIZE plaintext bytes plus their tag.
+// Each chunk's nonce is the prefix followed by its index, and the last chunk is flagged in the associated data,
+// so chunks cannot be reordered, dropped or truncated without failing authentication.
+public final class AttachmentCrypto {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String KEYSTORE_PROVIDER = "AndroidKeyStore";
+    private static final String WRAPPING_KEY_ALIAS = "coffre_fort_attachments";
+    private static final String PREFS_NAME = "attachment_crypto";
+    private static final String KEY_WRAPPED_DATA_KEY = "wrapped_data_key";
+    private static final String KEY_LEGACY_FILES_ENCRYPTED = "legacy_files_encrypted";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte[] MAGIC = {'C', 'F', 'A', '1'};
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int HEADER_LENGTH = MAGIC.length + NONCE_PREFIX_LENGTH;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static SecretKey dataKey;
+
+    private AttachmentCrypto() {
+    }
+
+    public static OutputStream openOutputStream(Context context, File file) throws IOException {
+        return openOutputStream(file, getDataKey(context));
+    }
+
+    // Package-private so tests can supply a key: the Keystore is not available off device.
+    static OutputStream openOutputStream(File file, SecretKey key) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return new EncryptingOutputStream(out, key);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    // Files copied before encryption was introduced are still plaintext and are returned as they are, until
+    // maintenance has encrypted them all: from then on a plaintext file can only have been planted, and is refused.
+    public static InputStream openInputStream(Context context, File file) throws IOException {
+        if (!isEncrypted(file)) {
+            if (areLegacyFilesEncrypted(context)) {
+                throw new IOException("Refusing unencrypted attachment " + file.getName());
+            }
+            return new FileInputStream(file);
+        }
+        return openInputStream(file, getDataKey(context));
+    }
+
+    static InputStream openInputStream(File file, SecretKey key) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new DecryptingInputStream(in, key);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Called by StorageMaintenanceJobService once a full pass found no plaintext file left.
+    public static void markLegacyFilesEncrypted(Context context) throws IOException {
+        if (!getPreferences(context).edit().putBoolean(KEY_LEGACY_FILES_ENCRYPTED, true).commit()) {
+            throw new IOException("Unable to record the attachment migration");
+        }
+    }
+
+    public static boolean areLegacyFilesEncrypted(Context context) {
+        return getPreferences(context).getBoolean(KEY_LEGACY_FILES_ENCRYPTED, false);
+    }
+
+    public static boolean isEncrypted(File file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (FileInputStream in = new FileInputStream(file)) {
+            return readFully(in, magic, 0, magic.length) == magic.length && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    public static long getPlaintextLength(File file) throws IOException {
+        if (!isEncrypted(file)) {
+            return file.length();
+        }
+        long payload = file.length() - HEADER_LENGTH;
+        // Every chunk but the last is full, and an empty file still has one chunk.
+        long sealedChunkSize = CHUNK_SIZE + TAG_LENGTH;
+        long chunks = Math.max(1L, (payload + sealedChunkSize - 1) / sealedChunkSize);
+        return Math.max(0L, payload - chunks * TAG_LENGTH);
+    }
+
+    public static void encryptInPlace(Context context, File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = openOutputStream(context, temp)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Unable to replace " + file.getName());
+        }
+    }
+
+    // Attachments are encrypted with a software key wrapped by the Keystore: a Keystore key would cost
+    // a round trip to the keystore daemon for every chunk.
+    private static synchronized SecretKey getDataKey(Context context) throws IOException {
+        if (dataKey != null) {
+            return dataKey;
+        }
+        SharedPreferences preferences = getPreferences(context);
+        try {
+            SecretKey wrappingKey = getOrCreateWrappingKey();
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            String stored = preferences.getString(KEY_WRAPPED_DATA_KEY, null);
+            byte[] raw;
+            if (stored == null) {
+                raw = new byte[DATA_KEY_LENGTH];
+                RANDOM.nextBytes(raw);
+                cipher.init(Cipher.ENCRYPT_MODE, wrappingKey);
+                byte[] iv = cipher.getIV();
+                byte[] wrapped = cipher.doFinal(raw);
+                byte[] blob = new byte[iv.length + wrapped.length];
+                System.arraycopy(iv, 0, blob, 0, iv.length);
+                System.arraycopy(wrapped, 0, blob, iv.length, wrapped.length);
+                // Must be on disk before the first file is written with it.
+                if (!preferences.edit().putString(KEY_WRAPPED_DATA_KEY,
+                        Base64.encodeToString(blob, Base64.NO_WRAP)).commit()) {
+                    throw new IOException("Unable to store the attachment key");
+                }
+            } else {
+                byte[] blob = Base64.decode(stored, Base64.NO_WRAP);
+                cipher.init(Cipher.DECRYPT_MODE, wrappingKey,
+                        new GCMParameterSpec(TAG_LENGTH * 8, blob, 0, NONCE_LENGTH));
+                raw = cipher.doFinal(blob, NONCE_LENGTH, blob.length - NONCE_LENGTH);
+            }
+            dataKey = new SecretKeySpec(raw, KeyProperties.KEY_ALGORITHM_AES);
+            return dataKey;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Attachment key unavailable", e);
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static SecretKey getOrCreateWrappingKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
+        keyStore.load(null);
+        if (keyStore.containsAlias(WRAPPING_KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(WRAPPING_KEY_ALIAS, null);
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE_PROVIDER);
+        generator.init(new KeyGenParameterSpec.Builder(WRAPPING_KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+
+    private static GCMParameterSpec chunkParameters(byte[] noncePrefix, int index) {
+        byte[] nonce = ByteBuffer.allocate(NONCE_LENGTH).put(noncePrefix).putInt(index).array();
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    private static byte[] chunkAad(boolean last) {
+        return new byte[]{(byte) (last ? 1 : 0)};
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static final class EncryptingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final SecretKey key;
+        private final Cipher cipher;
+        private final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        private final byte[] plain = new byte[CHUNK_SIZE];
+        private final byte[] sealed = new byte[CHUNK_SIZE + TAG_LENGTH];
+        private int plainLength;
+        private int chunkIndex;
+        private boolean closed;
+
+        EncryptingOutputStream(OutputStream out, SecretKey key) throws IOException {
+            this.out = out;
+            this.key = key;
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM unavailable", e);
+            }
+            RANDOM.nextBytes(noncePrefix);
+            out.write(MAGIC);
+            out.write(noncePrefix);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                // A full chunk is only sealed once more data arrives, since the last one is flagged differently.
+                if (plainLength == CHUNK_SIZE) {
+                    sealChunk(false);
+                }
+                int count = Math.min(len, CHUNK_SIZE - plainLength);
+                System.arraycopy(b, off, plain, plainLength, count);
+                plainLength += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                sealChunk(true);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void sealChunk(boolean last) throws IOException {
+            if (chunkIndex < 0) {
+                throw new IOException("Attachment too large");
+            }
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, chunkParameters(noncePrefix, chunkIndex));
+                cipher.updateAAD(chunkAad(last));
+                int length = cipher.doFinal(plain, 0, plainLength, sealed, 0);
+                out.write(sealed, 0, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to encrypt attachment", e);
+            }
+            chunkIndex++;
+            plainLength = 0;
+        }
+    }
+
+    private static final class DecryptingInputStream extends InputStream {
+        private final InputStream in;
+        private final SecretKey key;
+        private final Cipher cipher;
+        private final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        // One byte past a full chunk tells whether another chunk follows.
+        private final byte[] sealed = new byte[CHUNK_SIZE + TAG_LENGTH + 1];
+        private final byte[] plain = new byte[CHUNK_SIZE];
+        private int sealedCarry;
+        private int plainPosition;
+        private int plainLength;
+        private int chunkIndex;
+        private boolean lastChunkRead;
+
+        DecryptingInputStream(InputStream in, SecretKey key) throws IOException {
+            this.in = in;
+            this.key = key;
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM unavailable", e);
+            }
+            byte[] magic = new byte[MAGIC.length];
+            if (readFully(in, magic, 0, magic.length) != magic.length || !Arrays.equals(magic, MAGIC)
+                    || readFully(in, noncePrefix, 0, NONCE_PREFIX_LENGTH) != NONCE_PREFIX_LENGTH) {
+                throw new IOException("Not an encrypted attachment");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (plainPosition == plainLength) {
+                if (lastChunkRead) {
+                    return -1;
+                }
+                openChunk();
+            }
+            int count = Math.min(len, plainLength - plainPosition);
+            System.arraycopy(plain, plainPosition, b, off, count);
+            plainPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return plainLength - plainPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void openChunk() throws IOException {
+            int available = sealedCarry + readFully(in, sealed, sealedCarry, sealed.length - sealedCarry);
+            boolean last = available < sealed.length;
+            int length = last ? available : available - 1;
+            if (length < TAG_LENGTH) {
+                throw new IOException("Truncated attachment");
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, chunkParameters(noncePrefix, chunkIndex));
+                cipher.updateAAD(chunkAad(last));
+                plainLength = cipher.doFinal(sealed, 0, length, plain, 0);
+            } catch (AEADBadTagException e) {
+                throw new IOException("Attachment failed authentication", e);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to decrypt attachment", e);
+            }
+            plainPosition = 0;
+            chunkIndex++;
+            lastChunkRead = last;
+            if (!last) {
+                sealed[0] = sealed[length];
+                sealedCarry = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.coffre.fort;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class AttachmentPartIndex {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    // Open addressing over two parallel arrays: 16 bytes per slot instead of a boxed entry per pair.
+    private long[] messageIds;
+    private long[] partIds;
+    private int size;
+    // MMS part ids are numeric; anything else is kept aside so it is still recognised.
+    private final Set<String> otherKeys = new HashSet<>();
+
+    public AttachmentPartIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public boolean contains(long messageLocalId, String providerPartId) {
+        if (!isNumeric(providerPartId)) {
+            return otherKeys.contains(messageLocalId + ":" + providerPartId);
+        }
+        long partId = Long.parseLong(providerPartId);
+        int mask = messageIds.length - 1;
+        int slot = hash(messageLocalId, partId) & mask;
+        while (messageIds[slot] != EMPTY) {
+            if (messageIds[slot] == messageLocalId && partIds[slot] == partId) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public void add(long messageLocalId, String providerPartId) {
+        if (providerPartId == null) {
+            return;
+        }
+        if (!isNumeric(providerPartId) || messageLocalId == EMPTY) {
+            otherKeys.add(messageLocalId + ":" + providerPartId);
+            return;
+        }
+        if ((size + 1) * 4 > messageIds.length * 3) {
+            resize(messageIds.length << 1);
+        }
+        if (insert(messageLocalId, Long.parseLong(providerPartId))) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size + otherKeys.size();
+    }
+
+    public long estimatedBytes() {
+        // Rough figure for logging: array payloads plus ~64 bytes per String/HashMap entry on the side.
+        return (long) messageIds.length * 2 * Long.BYTES + otherKeys.size() * 64L;
+    }
+
+    private boolean insert(long messageLocalId, long partId) {
+        int mask = messageIds.length - 1;
+        int slot = hash(messageLocalId, partId) & mask;
+        while (messageIds[slot] != EMPTY) {
+            if (messageIds[slot] == messageLocalId && partIds[slot] == partId) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        messageIds[slot] = messageLocalId;
+        partIds[slot] = partId;
+        return true;
+    }
+
+    private void resize(int capacity) {
+        long[] oldMessageIds = messageIds;
+        long[] oldPartIds = partIds;
+        allocate(capacity);
+        for (int i = 0; i < oldMessageIds.length; i++) {
+            if (oldMessageIds[i] != EMPTY) {
+                insert(oldMessageIds[i], oldPartIds[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        messageIds = new long[capacity];
+        partIds = new long[capacity];
+        Arrays.fill(messageIds, EMPTY);
+    }
+
+    private static int hash(long messageLocalId, long partId) {
+        long h = messageLocalId * 0x9E3779B97F4A7C15L + partId;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static boolean isNumeric(String value) {
+        if (value == null || value.isEmpty() || value.length() > 18
+                || (value.length() > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,154 @@
+package com.coffre.fort;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves attachments decrypted on the fly through a pipe, so no plaintext copy ever touches the disk.
+public class AttachmentProvider extends ContentProvider {
+
+    private static final String TAG = "AttachmentProvider";
+    private static final String AUTHORITY_SUFFIX = ".attachments";
+    private static final String[] DEFAULT_PROJECTION = {OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ExecutorService PIPE_EXECUTOR = Executors.newCachedThreadPool();
+
+    public static Uri getUri(Context context, File file) {
+        return new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(context.getPackageName() + AUTHORITY_SUFFIX)
+                .appendPath(file.getName())
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        File file;
+        long size;
+        try {
+            file = resolveFile(uri);
+            size = AttachmentCrypto.getPlaintextLength(file);
+        } catch (IOException e) {
+            return null;
+        }
+        String[] columns = projection == null ? DEFAULT_PROJECTION : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(columns[i])) {
+                row[i] = file.getName();
+            } else if (OpenableColumns.SIZE.equals(columns[i])) {
+                row[i] = size;
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        String extension = MimeTypeMap.getFileExtensionFromUrl(uri.getLastPathSegment());
+        String mimeType = TextUtils.isEmpty(extension) ? null
+                : MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
+        return mimeType == null ? "application/octet-stream" : mimeType;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Attachments are read-only: " + uri);
+        }
+        File file = resolveFile(uri);
+        InputStream source;
+        ParcelFileDescriptor[] pipe;
+        try {
+            // Opened here rather than on the pipe thread so that a missing key fails the caller right away.
+            source = AttachmentCrypto.openInputStream(getContext(), file);
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open attachment " + file.getName(), e);
+            throw new FileNotFoundException(uri.toString());
+        }
+        ParcelFileDescriptor writeSide = pipe[1];
+        PIPE_EXECUTOR.execute(() -> {
+            // The descriptor belongs to writeSide, which reports success or failure to the reader when it closes.
+            OutputStream out = new FileOutputStream(writeSide.getFileDescriptor());
+            try (InputStream in = source) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                writeSide.close();
+            } catch (IOException e) {
+                // Also reached when the reader closes its end early.
+                Log.w(TAG, "Attachment stream interrupted for " + file.getName(), e);
+                try {
+                    writeSide.closeWithError(e.getMessage());
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Attachments are read-only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Attachments are read-only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Attachments are read-only");
+    }
+
+    private File resolveFile(Uri uri) throws FileNotFoundException {
+        String name = uri.getLastPathSegment();
+        if (TextUtils.isEmpty(name) || name.contains(File.separator) || name.startsWith(".")) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        File directory = new File(getContext().getFilesDir(), MessageSyncManager.ATTACHMENTS_DIRECTORY);
+        File file = new File(directory, name);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return file;
+    }
+}
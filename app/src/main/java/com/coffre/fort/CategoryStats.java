@@ -0,0 +1,31 @@
+package com.coffre.fort;
+
+public class CategoryStats {
+    private final String category;
+    private final int itemCount;
+    private final long attachmentBytes;
+    private final long newestTimestamp;
+
+    public CategoryStats(String category, int itemCount, long attachmentBytes, long newestTimestamp) {
+        this.category = category;
+        this.itemCount = itemCount;
+        this.attachmentBytes = attachmentBytes;
+        this.newestTimestamp = newestTimestamp;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public long getAttachmentBytes() {
+        return attachmentBytes;
+    }
+
+    public long getNewestTimestamp() {
+        return newestTimestamp;
+    }
+}
@@ -0,0 +1,22 @@
+package com.coffre.fort;
+
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+import android.os.StrictMode;
+
+public class CoffreFortApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+        StorageMaintenanceJobService.schedule(this);
+        MessageDocumentMigration.runIfNeeded(this);
+    }
+}
@@ -0,0 +1,109 @@
+package com.coffre.fort;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+public class ConversationListActivity extends AppCompatActivity implements ThreadAdapter.OnThreadClickListener {
+
+    private static final int THREAD_PAGE_SIZE = 50;
+    private static final int LOAD_MORE_THRESHOLD = 10;
+
+    private TextView emptyTextView;
+    private ThreadAdapter adapter;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
+    private int threadsGeneration;
+    private boolean hasMoreThreads;
+    private boolean loadingMoreThreads;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_conversation_list);
+        setTitle(R.string.conversations_title);
+
+        repository = VaultRepository.getInstance(this);
+        emptyTextView = findViewById(R.id.threadsEmptyTextView);
+        RecyclerView recyclerView = findViewById(R.id.threadsRecyclerView);
+
+        adapter = new ThreadAdapter(this);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (!hasMoreThreads || loadingMoreThreads) {
+                    return;
+                }
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= adapter.getItemCount() - LOAD_MORE_THRESHOLD) {
+                    loadingMoreThreads = true;
+                    recyclerView.post(() -> loadMoreThreads());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        loadThreads();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        scope.cancel();
+    }
+
+    @Override
+    public void onThreadClick(ThreadSummary thread) {
+        if (thread.getUnreadCount() > 0) {
+            repository.markThreadRead(scope, thread.getThreadKey(), result -> {
+            });
+        }
+        Intent intent = new Intent(this, MessageListActivity.class);
+        intent.putExtra(MessageListActivity.EXTRA_THREAD_KEY, thread.getThreadKey());
+        intent.putExtra(MessageListActivity.EXTRA_THREAD_ADDRESS, thread.getAddress());
+        startActivity(intent);
+    }
+
+    private void loadThreads() {
+        final int generation = ++threadsGeneration;
+        loadingMoreThreads = true;
+        repository.getThreadsPage(scope, null, THREAD_PAGE_SIZE, threads -> {
+            if (generation != threadsGeneration) {
+                return;
+            }
+            hasMoreThreads = threads.size() == THREAD_PAGE_SIZE;
+            loadingMoreThreads = false;
+            adapter.setThreads(threads);
+            emptyTextView.setVisibility(threads.isEmpty() ? View.VISIBLE : View.GONE);
+        });
+    }
+
+    private void loadMoreThreads() {
+        ThreadSummary last = adapter.getLastThread();
+        if (last == null) {
+            loadingMoreThreads = false;
+            return;
+        }
+        final int generation = threadsGeneration;
+        repository.getThreadsPage(scope, last, THREAD_PAGE_SIZE, page -> {
+            if (generation != threadsGeneration) {
+                return;
+            }
+            hasMoreThreads = page.size() == THREAD_PAGE_SIZE;
+            adapter.appendThreads(page);
+            loadingMoreThreads = false;
+        });
+    }
+}
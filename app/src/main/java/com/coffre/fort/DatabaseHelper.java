@@ -3,19 +3,43 @@ package com.coffre.fort;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "coffre_fort.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 11;
+    private static final int WAL_AUTO_CHECKPOINT_PAGES = 4000;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final int UPSERT_CHUNK_SIZE = 500;
+    // Stays below SQLITE_MAX_VARIABLE_NUMBER (999 on older devices).
+    private static final int MAX_SQL_VARIABLES = 500;
+    private static final int DOCUMENT_CACHE_SIZE = 64;
+    private static final int MESSAGE_CACHE_SIZE = 128;
+    private static final int DEFAULT_CONTENT_INLINE_LIMIT = 64 * 1024;
+    private static final int EXTERNAL_CONTENT_PREVIEW_LENGTH = 1024;
+    // Short bodies barely shrink and would only cost an inflate on every read.
+    private static final int ARCHIVE_COMPRESS_MIN_LENGTH = 256;
+    // The receivers stamped documents with the PDU time, the provider stores its own receive time.
+    private static final long LEGACY_MESSAGE_MATCH_WINDOW_MS = 10 * 60 * 1000L;
+    private static final String TAG = "DatabaseHelper";
 
     private static final String TABLE_DOCUMENTS = "documents";
     private static final String COLUMN_ID = "id";
@@ -26,6 +50,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_ATTACHMENT_URI = "attachment_uri";
     private static final String COLUMN_ATTACHMENT_MIME = "attachment_mime";
     private static final String COLUMN_ATTACHMENT_NAME = "attachment_name";
+    private static final String COLUMN_CONTENT_FILE = "content_file";
 
     private static final String TABLE_AUTH = "auth";
     private static final String COLUMN_PASSWORD = "password";
@@ -48,8 +73,172 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_ATTACHMENT_CONTENT_TYPE = "contentType";
     private static final String COLUMN_ATTACHMENT_SIZE = "sizeBytes";
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private static final String TABLE_MESSAGES_ARCHIVE = "messages_archive";
+    private static final String COLUMN_ARCHIVE_BODY_DEFLATED = "body_deflated";
+
+    private static final String TABLE_DOCUMENTS_FTS = "documents_fts";
+    private static final String TABLE_MESSAGES_FTS = "messages_fts";
+    private static final String TABLE_MESSAGES_ARCHIVE_FTS = "messages_archive_fts";
+    private static final String TABLE_DOCUMENTS_FULLTEXT_FTS = "documents_fulltext_fts";
+    private static final String SNIPPET_ELLIPSIS = "…";
+    private static final int SNIPPET_TOKENS = 12;
+    private static final String TABLE_CATEGORY_STATS = "category_stats";
+    private static final String COLUMN_STATS_CATEGORY = "category";
+    private static final String COLUMN_STATS_ITEM_COUNT = "itemCount";
+    private static final String COLUMN_STATS_ATTACHMENT_BYTES = "attachmentBytes";
+    private static final String COLUMN_STATS_NEWEST_TIMESTAMP = "newestTimestamp";
+    // Row holding the synced messages; document categories are user-visible labels and never start with '#'.
+    public static final String STATS_KEY_MESSAGES = "#messages";
+
+    private static final String TABLE_THREADS = "threads";
+    private static final String COLUMN_THREAD_KEY = "threadKey";
+    private static final String COLUMN_THREAD_ADDRESS = "address";
+    private static final String COLUMN_THREAD_LAST_MESSAGE_ID = "lastMessageId";
+    private static final String COLUMN_THREAD_LAST_PREVIEW = "lastPreview";
+    private static final String COLUMN_THREAD_LAST_DATE = "lastDate";
+    private static final String COLUMN_THREAD_TOTAL_COUNT = "totalCount";
+    private static final String COLUMN_THREAD_UNREAD_COUNT = "unreadCount";
+    private static final String COLUMN_THREAD_HAS_ATTACHMENTS = "hasAttachments";
+    private static final String COLUMN_THREAD_LAST_READ_DATE = "lastReadDate";
+    // Telephony's MESSAGE_TYPE_INBOX and MESSAGE_BOX_INBOX: only received messages can be unread.
+    private static final int BOX_TYPE_INBOX = 1;
+
+    private static final String COLUMN_PREVIEW = "preview";
+    private static final String COLUMN_HAS_ATTACHMENT = "has_attachment";
+    private static final String COLUMN_TIMELINE_KIND = "kind";
+    private static final String COLUMN_TIMELINE_ID = "item_id";
+    private static final String COLUMN_TIMELINE_TIMESTAMP = "item_timestamp";
+    // List rows show at most three lines, so there is no point copying more text into the CursorWindow.
+    private static final int PREVIEW_LENGTH = 200;
+
+    private static final String SQL_INSERT_MESSAGE = "INSERT INTO " + TABLE_MESSAGES + " ("
+            + COLUMN_MESSAGE_PROVIDER_ID + ", " + COLUMN_MESSAGE_PROVIDER_TYPE + ", "
+            + COLUMN_MESSAGE_ADDRESS + ", " + COLUMN_MESSAGE_DATE + ", " + COLUMN_MESSAGE_BODY + ", "
+            + COLUMN_MESSAGE_BOX_TYPE + ", " + COLUMN_MESSAGE_HAS_ATTACHMENTS + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    // hasAttachments only ever goes from 0 to 1: a later sync must not clear a flag set by an earlier one.
+    private static final String SQL_UPSERT_MESSAGE = SQL_INSERT_MESSAGE
+            + " ON CONFLICT(" + COLUMN_MESSAGE_PROVIDER_ID + ", " + COLUMN_MESSAGE_PROVIDER_TYPE + ") DO UPDATE SET "
+            + COLUMN_MESSAGE_ADDRESS + " = excluded." + COLUMN_MESSAGE_ADDRESS + ", "
+            + COLUMN_MESSAGE_DATE + " = excluded." + COLUMN_MESSAGE_DATE + ", "
+            + COLUMN_MESSAGE_BODY + " = excluded." + COLUMN_MESSAGE_BODY + ", "
+            + COLUMN_MESSAGE_BOX_TYPE + " = excluded." + COLUMN_MESSAGE_BOX_TYPE + ", "
+            + COLUMN_MESSAGE_HAS_ATTACHMENTS + " = MAX(" + COLUMN_MESSAGE_HAS_ATTACHMENTS
+            + ", excluded." + COLUMN_MESSAGE_HAS_ATTACHMENTS + ")"
+            // Unchanged rows are left alone so a resync does not rewrite them or their search index entries.
+            + " WHERE " + COLUMN_MESSAGE_ADDRESS + " IS NOT excluded." + COLUMN_MESSAGE_ADDRESS
+            + " OR " + COLUMN_MESSAGE_DATE + " IS NOT excluded." + COLUMN_MESSAGE_DATE
+            + " OR " + COLUMN_MESSAGE_BODY + " IS NOT excluded." + COLUMN_MESSAGE_BODY
+            + " OR " + COLUMN_MESSAGE_BOX_TYPE + " IS NOT excluded." + COLUMN_MESSAGE_BOX_TYPE
+            + " OR " + COLUMN_MESSAGE_HAS_ATTACHMENTS + " < excluded." + COLUMN_MESSAGE_HAS_ATTACHMENTS;
+    private static final String SQL_UPDATE_MESSAGE_BY_PROVIDER = "UPDATE " + TABLE_MESSAGES + " SET "
+            + COLUMN_MESSAGE_ADDRESS + " = ?1, " + COLUMN_MESSAGE_DATE + " = ?2, " + COLUMN_MESSAGE_BODY + " = ?3, "
+            + COLUMN_MESSAGE_BOX_TYPE + " = ?4, "
+            + COLUMN_MESSAGE_HAS_ATTACHMENTS + " = MAX(" + COLUMN_MESSAGE_HAS_ATTACHMENTS + ", ?5) WHERE "
+            + COLUMN_MESSAGE_PROVIDER_ID + " = ?6 AND " + COLUMN_MESSAGE_PROVIDER_TYPE + " = ?7 AND ("
+            + COLUMN_MESSAGE_ADDRESS + " IS NOT ?1 OR " + COLUMN_MESSAGE_DATE + " IS NOT ?2 OR "
+            + COLUMN_MESSAGE_BODY + " IS NOT ?3 OR " + COLUMN_MESSAGE_BOX_TYPE + " IS NOT ?4 OR "
+            + COLUMN_MESSAGE_HAS_ATTACHMENTS + " < ?5)";
+    private static final String SQL_INSERT_ATTACHMENT = "INSERT INTO " + TABLE_ATTACHMENTS + " ("
+            + COLUMN_ATTACHMENT_MESSAGE_ID + ", " + COLUMN_ATTACHMENT_PROVIDER_PART_ID + ", "
+            + COLUMN_ATTACHMENT_PATH + ", " + COLUMN_ATTACHMENT_CONTENT_TYPE + ", "
+            + COLUMN_ATTACHMENT_SIZE + ") VALUES (?, ?, ?, ?, ?)";
+    // The three lookups below are package-private so QueryPlanTest explains them as compiled.
+    static final String SQL_SELECT_MESSAGE_ID = "SELECT " + COLUMN_MESSAGE_LOCAL_ID + " FROM " + TABLE_MESSAGES
+            + " WHERE " + COLUMN_MESSAGE_PROVIDER_ID + " = ? AND " + COLUMN_MESSAGE_PROVIDER_TYPE + " = ?";
+    static final String SQL_SELECT_ARCHIVED_MESSAGE_ID = "SELECT " + COLUMN_MESSAGE_LOCAL_ID
+            + " FROM " + TABLE_MESSAGES_ARCHIVE + " WHERE " + COLUMN_MESSAGE_PROVIDER_ID + " = ? AND "
+            + COLUMN_MESSAGE_PROVIDER_TYPE + " = ?";
+    static final String SQL_ATTACHMENT_EXISTS = "SELECT EXISTS(SELECT 1 FROM " + TABLE_ATTACHMENTS
+            + " WHERE " + COLUMN_ATTACHMENT_MESSAGE_ID + " = ? AND " + COLUMN_ATTACHMENT_PROVIDER_PART_ID + " = ?)";
+
+    private static volatile DatabaseHelper instance;
+
+    private final DocumentContentStore contentStore;
+    private final PasswordHasher passwordHasher;
+    // Single-row auth table, read once and kept in step by setPassword. Guarded by this.
+    private String passwordHash;
+    private boolean passwordHashLoaded;
+    private volatile int contentInlineLimit = DEFAULT_CONTENT_INLINE_LIMIT;
+    private volatile boolean autoVacuumConversionFailed;
+
+    // Full rows by id for the detail screens. Documents are mutable, so copies go in and out.
+    private final LruCache<Integer, Document> documentCache = new LruCache<>(DOCUMENT_CACHE_SIZE);
+    private final LruCache<Long, VaultMessage> messageCache = new LruCache<>(MESSAGE_CACHE_SIZE);
+
+    // Compiled once for the life of the connection. Bindings live on the statement object, so each one is
+    // used under its own lock; the receivers and the sync thread only contend when they hit the same statement.
+    private final CachedStatement selectMessageIdStatement = new CachedStatement(SQL_SELECT_MESSAGE_ID);
+    private final CachedStatement selectArchivedMessageIdStatement = new CachedStatement(SQL_SELECT_ARCHIVED_MESSAGE_ID);
+    private final CachedStatement insertMessageStatement = new CachedStatement(SQL_INSERT_MESSAGE);
+    private final CachedStatement updateMessageStatement = new CachedStatement(SQL_UPDATE_MESSAGE_BY_PROVIDER);
+    private final CachedStatement insertAttachmentStatement = new CachedStatement(SQL_INSERT_ATTACHMENT);
+    private final CachedStatement attachmentExistsStatement = new CachedStatement(SQL_ATTACHMENT_EXISTS);
+
+    public static DatabaseHelper getInstance(Context context) {
+        DatabaseHelper helper = instance;
+        if (helper == null) {
+            synchronized (DatabaseHelper.class) {
+                helper = instance;
+                if (helper == null) {
+                    helper = new DatabaseHelper(context.getApplicationContext());
+                    instance = helper;
+                }
+            }
+        }
+        return helper;
+    }
+
+    // Package-private so tests can open a helper per test; the app always goes through getInstance().
+    DatabaseHelper(Context context) {
+        this(context, null);
+    }
+
+    // Every cursor-backed query goes through the factory, which lets tests see the SQL actually run.
+    DatabaseHelper(Context context, SQLiteDatabase.CursorFactory cursorFactory) {
+        super(context, DATABASE_NAME, cursorFactory, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+        contentStore = new DocumentContentStore(context);
+        passwordHasher = new PasswordHasher(context);
+    }
+
+    public DocumentContentStore getContentStore() {
+        return contentStore;
+    }
+
+    // Content longer than this many characters is written to a side file; the row keeps a preview.
+    public void setContentInlineLimit(int characters) {
+        contentInlineLimit = characters;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Checkpoints are driven by the app (see checkpoint()); the automatic one is only a safety net.
+        // It fires on commit, and only the primary connection ever commits.
+        runPragmaOnPrimary(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTO_CHECKPOINT_PAGES);
+        // No auto_vacuum here: by now the file is already in WAL and the setting would be ignored. Every file,
+        // new or old, is switched to incremental mode by the one-off VACUUM in ensureIncrementalAutoVacuum().
+    }
+
+    @Override
+    public synchronized void close() {
+        // The shared connection lives for the whole process; callers must not close it.
+    }
+
+    // Tests open a helper per test and have to release its connections, which close() deliberately does not.
+    synchronized void closeForTests() {
+        selectMessageIdStatement.close();
+        selectArchivedMessageIdStatement.close();
+        insertMessageStatement.close();
+        updateMessageStatement.close();
+        insertAttachmentStatement.close();
+        attachmentExistsStatement.close();
+        super.close();
+        synchronized (DatabaseHelper.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
     }
 
     @Override
@@ -62,7 +251,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + COLUMN_TIMESTAMP + " INTEGER, "
                 + COLUMN_ATTACHMENT_URI + " TEXT, "
                 + COLUMN_ATTACHMENT_MIME + " TEXT, "
-                + COLUMN_ATTACHMENT_NAME + " TEXT)";
+                + COLUMN_ATTACHMENT_NAME + " TEXT, "
+                + COLUMN_CONTENT_FILE + " TEXT)";
         db.execSQL(createDocumentsTable);
 
         String createAuthTable = "CREATE TABLE " + TABLE_AUTH + " ("
@@ -70,6 +260,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(createAuthTable);
 
         createMessageTables(db);
+        createIndexes(db);
+        createSearchIndex(db);
+        createCategoryStats(db);
+        createMessageArchive(db);
+        createThreads(db);
+        createDocumentFulltextIndex(db);
     }
 
     @Override
@@ -82,6 +278,331 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         if (oldVersion < 3) {
             createMessageTables(db);
         }
+        if (oldVersion < 4) {
+            createIndexes(db);
+        }
+        if (oldVersion < 5) {
+            createSearchIndex(db);
+            db.execSQL("INSERT INTO " + TABLE_DOCUMENTS_FTS + "(" + TABLE_DOCUMENTS_FTS + ") VALUES('rebuild')");
+            db.execSQL("INSERT INTO " + TABLE_MESSAGES_FTS + "(" + TABLE_MESSAGES_FTS + ") VALUES('rebuild')");
+        }
+        if (oldVersion < 6) {
+            createCategoryStats(db);
+            db.execSQL("INSERT INTO " + TABLE_CATEGORY_STATS + " SELECT IFNULL(" + COLUMN_CATEGORY + ", ''), COUNT(*), 0, "
+                    + "IFNULL(MAX(" + COLUMN_TIMESTAMP + "), 0) FROM " + TABLE_DOCUMENTS
+                    + " GROUP BY IFNULL(" + COLUMN_CATEGORY + ", '')");
+            db.execSQL("INSERT INTO " + TABLE_CATEGORY_STATS + " VALUES ('" + STATS_KEY_MESSAGES + "', "
+                    + "(SELECT COUNT(*) FROM " + TABLE_MESSAGES + "), "
+                    + "(SELECT IFNULL(SUM(" + COLUMN_ATTACHMENT_SIZE + "), 0) FROM " + TABLE_ATTACHMENTS + "), "
+                    + "(SELECT IFNULL(MAX(" + COLUMN_MESSAGE_DATE + "), 0) FROM " + TABLE_MESSAGES + "))");
+        }
+        if (oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_CONTENT_FILE + " TEXT");
+        }
+        if (oldVersion < 8) {
+            createMessageArchive(db);
+        }
+        if (oldVersion < 9) {
+            createThreads(db);
+            backfillThreads(db);
+        }
+        if (oldVersion < 10) {
+            createDocumentFulltextIndex(db);
+            indexExistingSideFiles(db);
+        }
+        if (oldVersion < 11) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + TABLE_CATEGORY_STATS + "_messages_ad");
+            db.execSQL("DROP TRIGGER IF EXISTS " + TABLE_CATEGORY_STATS + "_archive_ad");
+            db.execSQL(createStatsRemoveMessageTrigger("messages_ad", TABLE_MESSAGES));
+            db.execSQL(createStatsRemoveMessageTrigger("archive_ad", TABLE_MESSAGES_ARCHIVE));
+            db.execSQL("UPDATE " + TABLE_CATEGORY_STATS + " SET " + COLUMN_STATS_NEWEST_TIMESTAMP + " = "
+                    + statsNewestMessageDate() + " WHERE " + COLUMN_STATS_CATEGORY + " = '" + STATS_KEY_MESSAGES + "'");
+        }
+    }
+
+    private void createCategoryStats(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CATEGORY_STATS + " ("
+                + COLUMN_STATS_CATEGORY + " TEXT PRIMARY KEY, "
+                + COLUMN_STATS_ITEM_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_STATS_ATTACHMENT_BYTES + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_STATS_NEWEST_TIMESTAMP + " INTEGER NOT NULL DEFAULT 0)");
+
+        String documentKey = "IFNULL(%s." + COLUMN_CATEGORY + ", '')";
+        String newDocument = String.format(documentKey, "new");
+        String oldDocument = String.format(documentKey, "old");
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_documents_ai AFTER INSERT ON " + TABLE_DOCUMENTS
+                + " BEGIN " + statsAdd(newDocument, "new." + COLUMN_TIMESTAMP) + " END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_documents_ad AFTER DELETE ON " + TABLE_DOCUMENTS
+                + " BEGIN " + statsRemoveDocument(oldDocument) + " END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_documents_au AFTER UPDATE OF "
+                + COLUMN_CATEGORY + ", " + COLUMN_TIMESTAMP + " ON " + TABLE_DOCUMENTS
+                + " BEGIN " + statsRemoveDocument(oldDocument)
+                + statsAdd(newDocument, "new." + COLUMN_TIMESTAMP) + " END");
+
+        String messagesKey = "'" + STATS_KEY_MESSAGES + "'";
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_messages_ai AFTER INSERT ON " + TABLE_MESSAGES
+                + " BEGIN " + statsAdd(messagesKey, "new." + COLUMN_MESSAGE_DATE) + " END");
+        db.execSQL(createStatsRemoveMessageTrigger("messages_ad", TABLE_MESSAGES));
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_messages_au AFTER UPDATE OF "
+                + COLUMN_MESSAGE_DATE + " ON " + TABLE_MESSAGES + " WHEN new." + COLUMN_MESSAGE_DATE
+                + " > old." + COLUMN_MESSAGE_DATE
+                + " BEGIN UPDATE " + TABLE_CATEGORY_STATS + " SET " + COLUMN_STATS_NEWEST_TIMESTAMP + " = MAX("
+                + COLUMN_STATS_NEWEST_TIMESTAMP + ", new." + COLUMN_MESSAGE_DATE + ")"
+                + " WHERE " + COLUMN_STATS_CATEGORY + " = " + messagesKey + "; END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_attachments_ai AFTER INSERT ON " + TABLE_ATTACHMENTS
+                + " BEGIN " + statsAttachmentBytes(messagesKey, "+ new." + COLUMN_ATTACHMENT_SIZE) + " END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_attachments_ad AFTER DELETE ON " + TABLE_ATTACHMENTS
+                + " BEGIN " + statsAttachmentBytes(messagesKey, "- old." + COLUMN_ATTACHMENT_SIZE) + " END");
+    }
+
+    private String statsAdd(String key, String timestamp) {
+        return "INSERT OR IGNORE INTO " + TABLE_CATEGORY_STATS + "(" + COLUMN_STATS_CATEGORY + ") VALUES (" + key + ");"
+                + " UPDATE " + TABLE_CATEGORY_STATS + " SET "
+                + COLUMN_STATS_ITEM_COUNT + " = " + COLUMN_STATS_ITEM_COUNT + " + 1, "
+                + COLUMN_STATS_NEWEST_TIMESTAMP + " = MAX(" + COLUMN_STATS_NEWEST_TIMESTAMP + ", IFNULL(" + timestamp + ", 0))"
+                + " WHERE " + COLUMN_STATS_CATEGORY + " = " + key + ";";
+    }
+
+    private String statsRemoveDocument(String key) {
+        // The newest timestamp is looked up again through idx_documents_category_timestamp rather than rescanned.
+        return " UPDATE " + TABLE_CATEGORY_STATS + " SET "
+                + COLUMN_STATS_ITEM_COUNT + " = " + COLUMN_STATS_ITEM_COUNT + " - 1, "
+                + COLUMN_STATS_NEWEST_TIMESTAMP + " = IFNULL((SELECT MAX(" + COLUMN_TIMESTAMP + ") FROM " + TABLE_DOCUMENTS
+                + " WHERE " + COLUMN_CATEGORY + " IS old." + COLUMN_CATEGORY + "), 0)"
+                + " WHERE " + COLUMN_STATS_CATEGORY + " = " + key + ";"
+                + " DELETE FROM " + TABLE_CATEGORY_STATS + " WHERE " + COLUMN_STATS_CATEGORY + " = " + key
+                + " AND " + COLUMN_STATS_ITEM_COUNT + " <= 0;";
+    }
+
+    // A message leaves one table or the other, or moves from the hot table to the archive: the newest date
+    // is looked up again in both, each through its date index, so archiving never resets it.
+    private String statsNewestMessageDate() {
+        return "MAX(IFNULL((SELECT MAX(" + COLUMN_MESSAGE_DATE + ") FROM " + TABLE_MESSAGES + "), 0), "
+                + "IFNULL((SELECT MAX(" + COLUMN_MESSAGE_DATE + ") FROM " + TABLE_MESSAGES_ARCHIVE + "), 0))";
+    }
+
+    private String createStatsRemoveMessageTrigger(String name, String table) {
+        return "CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_" + name + " AFTER DELETE ON " + table
+                + " BEGIN UPDATE " + TABLE_CATEGORY_STATS + " SET "
+                + COLUMN_STATS_ITEM_COUNT + " = " + COLUMN_STATS_ITEM_COUNT + " - 1, "
+                + COLUMN_STATS_NEWEST_TIMESTAMP + " = " + statsNewestMessageDate()
+                + " WHERE " + COLUMN_STATS_CATEGORY + " = '" + STATS_KEY_MESSAGES + "'; END";
+    }
+
+    private String statsAttachmentBytes(String key, String delta) {
+        return "INSERT OR IGNORE INTO " + TABLE_CATEGORY_STATS + "(" + COLUMN_STATS_CATEGORY + ") VALUES (" + key + ");"
+                + " UPDATE " + TABLE_CATEGORY_STATS + " SET " + COLUMN_STATS_ATTACHMENT_BYTES + " = "
+                + COLUMN_STATS_ATTACHMENT_BYTES + " " + delta
+                + " WHERE " + COLUMN_STATS_CATEGORY + " = " + key + ";";
+    }
+
+    private void createSearchIndex(SQLiteDatabase db) {
+        // External-content FTS4 tables: the text lives only in documents/messages, the triggers keep the index in step.
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_DOCUMENTS_FTS + " USING fts4(content=\"" + TABLE_DOCUMENTS + "\", "
+                + COLUMN_TITLE + ", " + COLUMN_CONTENT + ", tokenize=unicode61)");
+        createSearchTriggers(db, TABLE_DOCUMENTS, TABLE_DOCUMENTS_FTS, COLUMN_TITLE, COLUMN_CONTENT);
+
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_FTS + " USING fts4(content=\"" + TABLE_MESSAGES + "\", "
+                + COLUMN_MESSAGE_ADDRESS + ", " + COLUMN_MESSAGE_BODY + ", tokenize=unicode61)");
+        createSearchTriggers(db, TABLE_MESSAGES, TABLE_MESSAGES_FTS, COLUMN_MESSAGE_ADDRESS, COLUMN_MESSAGE_BODY);
+    }
+
+    // documents_fts only sees the preview kept in the row; documents whose content went to a side file are
+    // indexed here in full. Contentless, so the text is not stored twice; rows cannot be deleted one by one,
+    // but document ids are never reused, so a deleted document's postings simply stop joining.
+    private void createDocumentFulltextIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_DOCUMENTS_FULLTEXT_FTS + " USING fts4(content=\"\", "
+                + COLUMN_TITLE + ", " + COLUMN_CONTENT + ", tokenize=unicode61)");
+    }
+
+    private void indexExistingSideFiles(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_DOCUMENTS, new String[]{COLUMN_ID, COLUMN_TITLE, COLUMN_CONTENT_FILE},
+                COLUMN_CONTENT_FILE + " IS NOT NULL", null, null, null, null);
+        while (cursor.moveToNext()) {
+            try {
+                indexFulltext(db, cursor.getLong(0), cursor.getString(1), contentStore.read(cursor.getString(2)));
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to index side file of document " + cursor.getLong(0), e);
+            }
+        }
+        cursor.close();
+    }
+
+    private void indexFulltext(SQLiteDatabase db, long documentId, String title, String content) {
+        ContentValues values = new ContentValues();
+        values.put("docid", documentId);
+        values.put(COLUMN_TITLE, title);
+        values.put(COLUMN_CONTENT, content);
+        db.insert(TABLE_DOCUMENTS_FULLTEXT_FTS, null, values);
+    }
+
+    private void createSearchTriggers(SQLiteDatabase db, String table, String ftsTable, String firstColumn, String secondColumn) {
+        String changed = " WHEN old." + firstColumn + " IS NOT new." + firstColumn
+                + " OR old." + secondColumn + " IS NOT new." + secondColumn;
+        String deleteOld = " BEGIN DELETE FROM " + ftsTable + " WHERE docid = old.rowid; END";
+        String insertNew = " BEGIN INSERT INTO " + ftsTable + "(docid, " + firstColumn + ", " + secondColumn + ")"
+                + " VALUES (new.rowid, new." + firstColumn + ", new." + secondColumn + "); END";
+        String columns = " OF " + firstColumn + ", " + secondColumn + " ON " + table;
+
+        db.execSQL("CREATE TRIGGER " + ftsTable + "_bd BEFORE DELETE ON " + table + deleteOld);
+        db.execSQL("CREATE TRIGGER " + ftsTable + "_bu BEFORE UPDATE" + columns + changed + deleteOld);
+        db.execSQL("CREATE TRIGGER " + ftsTable + "_au AFTER UPDATE" + columns + changed + insertNew);
+        db.execSQL("CREATE TRIGGER " + ftsTable + "_ai AFTER INSERT ON " + table + insertNew);
+    }
+
+    private void createMessageArchive(SQLiteDatabase db) {
+        // Same localId as the hot row it replaces, so attachments keep pointing at it. The body is either kept
+        // as text or deflated; preview holds the start of it so list rows never need to inflate anything.
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES_ARCHIVE + " ("
+                + COLUMN_MESSAGE_LOCAL_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_MESSAGE_PROVIDER_ID + " INTEGER, "
+                + COLUMN_MESSAGE_PROVIDER_TYPE + " TEXT, "
+                + COLUMN_MESSAGE_ADDRESS + " TEXT, "
+                + COLUMN_MESSAGE_DATE + " INTEGER, "
+                + COLUMN_MESSAGE_BODY + " TEXT, "
+                + COLUMN_ARCHIVE_BODY_DEFLATED + " BLOB, "
+                + COLUMN_MESSAGE_BOX_TYPE + " INTEGER, "
+                + COLUMN_MESSAGE_HAS_ATTACHMENTS + " INTEGER DEFAULT 0, "
+                + COLUMN_PREVIEW + " TEXT, "
+                + "UNIQUE(" + COLUMN_MESSAGE_PROVIDER_ID + ", " + COLUMN_MESSAGE_PROVIDER_TYPE + "))");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_archive_date ON " + TABLE_MESSAGES_ARCHIVE
+                + "(" + COLUMN_MESSAGE_DATE + ")");
+        // Contentless: deflated bodies cannot back an external-content index, so the text is indexed on the way in.
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_ARCHIVE_FTS + " USING fts4(content=\"\", "
+                + COLUMN_MESSAGE_ADDRESS + ", " + COLUMN_MESSAGE_BODY + ", tokenize=unicode61)");
+
+        // A resync must not bring an archived message back into the hot table.
+        db.execSQL("CREATE TRIGGER " + TABLE_MESSAGES_ARCHIVE + "_messages_bi BEFORE INSERT ON " + TABLE_MESSAGES
+                + " WHEN EXISTS (SELECT 1 FROM " + TABLE_MESSAGES_ARCHIVE + " WHERE "
+                + COLUMN_MESSAGE_PROVIDER_ID + " = new." + COLUMN_MESSAGE_PROVIDER_ID + " AND "
+                + COLUMN_MESSAGE_PROVIDER_TYPE + " = new." + COLUMN_MESSAGE_PROVIDER_TYPE + ")"
+                + " BEGIN SELECT RAISE(IGNORE); END");
+
+        // Archived messages still count towards the messages row of category_stats.
+        String messagesKey = "'" + STATS_KEY_MESSAGES + "'";
+        db.execSQL("CREATE TRIGGER " + TABLE_CATEGORY_STATS + "_archive_ai AFTER INSERT ON " + TABLE_MESSAGES_ARCHIVE
+                + " BEGIN " + statsAdd(messagesKey, "new." + COLUMN_MESSAGE_DATE) + " END");
+        db.execSQL(createStatsRemoveMessageTrigger("archive_ad", TABLE_MESSAGES_ARCHIVE));
+    }
+
+    // Phone numbers come back from the provider with or without spacing and punctuation.
+    private static String threadKeyExpression(String addressColumn) {
+        String key = "IFNULL(" + addressColumn + ", '')";
+        for (String separator : new String[]{" ", "-", ".", "(", ")"}) {
+            key = "replace(" + key + ", '" + separator + "', '')";
+        }
+        return "lower(" + key + ")";
+    }
+
+    // One row per correspondent, kept by triggers on both message tables so every write path updates it.
+    // Moving a message to the archive deletes and re-inserts it, which cancels out.
+    // Aggregates first, then the newest row of each thread by (date, localId): picked explicitly, because bare
+    // columns next to several aggregates come from an arbitrary row. Window functions need SQLite 3.25 (API 30),
+    // so the pick uses correlated subqueries on the thread expression indexes. Existing history starts out read.
+    private void backfillThreads(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_THREADS + " (" + COLUMN_THREAD_KEY + ", " + COLUMN_THREAD_LAST_DATE + ", "
+                + COLUMN_THREAD_TOTAL_COUNT + ", " + COLUMN_THREAD_HAS_ATTACHMENTS + ", " + COLUMN_THREAD_LAST_READ_DATE
+                + ") SELECT " + COLUMN_THREAD_KEY + ", MAX(" + COLUMN_MESSAGE_DATE + "), COUNT(*), MAX("
+                + COLUMN_MESSAGE_HAS_ATTACHMENTS + "), MAX(" + COLUMN_MESSAGE_DATE + ")"
+                + " FROM (SELECT " + threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + " AS " + COLUMN_THREAD_KEY + ", "
+                + COLUMN_MESSAGE_DATE + ", " + COLUMN_MESSAGE_HAS_ATTACHMENTS + " FROM " + TABLE_MESSAGES
+                + " UNION ALL SELECT " + threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + ", "
+                + COLUMN_MESSAGE_DATE + ", " + COLUMN_MESSAGE_HAS_ATTACHMENTS + " FROM " + TABLE_MESSAGES_ARCHIVE + ")"
+                + " GROUP BY " + COLUMN_THREAD_KEY);
+        // Any row at the thread's last date is among the newest; the highest localId breaks the tie.
+        db.execSQL("UPDATE " + TABLE_THREADS + " SET " + COLUMN_THREAD_LAST_MESSAGE_ID + " = MAX("
+                + newestLocalIdAt(TABLE_MESSAGES) + ", " + newestLocalIdAt(TABLE_MESSAGES_ARCHIVE) + ")");
+        // Archived messages keep their localId, so the id names a single row across both tables.
+        String hotRow = " FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_MESSAGE_LOCAL_ID + " = "
+                + TABLE_THREADS + "." + COLUMN_THREAD_LAST_MESSAGE_ID + ")";
+        String archivedRow = " FROM " + TABLE_MESSAGES_ARCHIVE + " WHERE " + COLUMN_MESSAGE_LOCAL_ID + " = "
+                + TABLE_THREADS + "." + COLUMN_THREAD_LAST_MESSAGE_ID + ")";
+        db.execSQL("UPDATE " + TABLE_THREADS + " SET "
+                + COLUMN_THREAD_ADDRESS + " = COALESCE((SELECT " + COLUMN_MESSAGE_ADDRESS + hotRow
+                + ", (SELECT " + COLUMN_MESSAGE_ADDRESS + archivedRow + "), "
+                + COLUMN_THREAD_LAST_PREVIEW + " = COALESCE((SELECT " + previewExpression(COLUMN_MESSAGE_BODY) + hotRow
+                + ", (SELECT " + COLUMN_PREVIEW + archivedRow + ")");
+    }
+
+    private String newestLocalIdAt(String table) {
+        return "IFNULL((SELECT MAX(" + COLUMN_MESSAGE_LOCAL_ID + ") FROM " + table + " WHERE "
+                + threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + " = " + TABLE_THREADS + "." + COLUMN_THREAD_KEY
+                + " AND " + COLUMN_MESSAGE_DATE + " = " + TABLE_THREADS + "." + COLUMN_THREAD_LAST_DATE + "), -1)";
+    }
+
+    private void createThreads(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_THREADS + " ("
+                + COLUMN_THREAD_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_THREAD_ADDRESS + " TEXT, "
+                + COLUMN_THREAD_LAST_MESSAGE_ID + " INTEGER, "
+                + COLUMN_THREAD_LAST_PREVIEW + " TEXT, "
+                + COLUMN_THREAD_LAST_DATE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_THREAD_TOTAL_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_THREAD_UNREAD_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_THREAD_HAS_ATTACHMENTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_THREAD_LAST_READ_DATE + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_threads_last_date ON " + TABLE_THREADS
+                + "(" + COLUMN_THREAD_LAST_DATE + ", " + COLUMN_THREAD_KEY + ")");
+        // Expression indexes (SQLite 3.9, API 24) let a conversation page its messages without a full scan.
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_thread ON " + TABLE_MESSAGES
+                + "(" + threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + ", " + COLUMN_MESSAGE_DATE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_archive_thread ON " + TABLE_MESSAGES_ARCHIVE
+                + "(" + threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + ", " + COLUMN_MESSAGE_DATE + ")");
+
+        createThreadTriggers(db, TABLE_MESSAGES, previewExpression("new." + COLUMN_MESSAGE_BODY));
+        createThreadTriggers(db, TABLE_MESSAGES_ARCHIVE, "new." + COLUMN_PREVIEW);
+        db.execSQL("CREATE TRIGGER " + TABLE_THREADS + "_messages_au AFTER UPDATE OF "
+                + COLUMN_MESSAGE_BODY + ", " + COLUMN_MESSAGE_HAS_ATTACHMENTS + " ON " + TABLE_MESSAGES
+                + " BEGIN UPDATE " + TABLE_THREADS + " SET "
+                + COLUMN_THREAD_HAS_ATTACHMENTS + " = MAX(" + COLUMN_THREAD_HAS_ATTACHMENTS + ", new."
+                + COLUMN_MESSAGE_HAS_ATTACHMENTS + "), "
+                + COLUMN_THREAD_LAST_PREVIEW + " = CASE WHEN " + COLUMN_THREAD_LAST_MESSAGE_ID + " = new."
+                + COLUMN_MESSAGE_LOCAL_ID + " THEN " + previewExpression("new." + COLUMN_MESSAGE_BODY)
+                + " ELSE " + COLUMN_THREAD_LAST_PREVIEW + " END"
+                + " WHERE " + COLUMN_THREAD_KEY + " = " + threadKeyExpression("new." + COLUMN_MESSAGE_ADDRESS) + "; END");
+    }
+
+    private void createThreadTriggers(SQLiteDatabase db, String table, String newPreview) {
+        String newKey = threadKeyExpression("new." + COLUMN_MESSAGE_ADDRESS);
+        String oldKey = threadKeyExpression("old." + COLUMN_MESSAGE_ADDRESS);
+        // SET expressions all see the row as it was, so lastDate below is the previous value.
+        String isNewest = "new." + COLUMN_MESSAGE_DATE + " >= " + COLUMN_THREAD_LAST_DATE;
+        db.execSQL("CREATE TRIGGER " + TABLE_THREADS + "_" + table + "_ai AFTER INSERT ON " + table
+                + " BEGIN INSERT OR IGNORE INTO " + TABLE_THREADS + "(" + COLUMN_THREAD_KEY + ") VALUES (" + newKey + ");"
+                + " UPDATE " + TABLE_THREADS + " SET "
+                + COLUMN_THREAD_TOTAL_COUNT + " = " + COLUMN_THREAD_TOTAL_COUNT + " + 1, "
+                + COLUMN_THREAD_UNREAD_COUNT + " = " + COLUMN_THREAD_UNREAD_COUNT + " + (new." + COLUMN_MESSAGE_BOX_TYPE
+                + " = " + BOX_TYPE_INBOX + " AND new." + COLUMN_MESSAGE_DATE + " > " + COLUMN_THREAD_LAST_READ_DATE + "), "
+                + COLUMN_THREAD_HAS_ATTACHMENTS + " = MAX(" + COLUMN_THREAD_HAS_ATTACHMENTS + ", new."
+                + COLUMN_MESSAGE_HAS_ATTACHMENTS + "), "
+                + COLUMN_THREAD_ADDRESS + " = CASE WHEN " + isNewest + " THEN new." + COLUMN_MESSAGE_ADDRESS
+                + " ELSE " + COLUMN_THREAD_ADDRESS + " END, "
+                + COLUMN_THREAD_LAST_MESSAGE_ID + " = CASE WHEN " + isNewest + " THEN new." + COLUMN_MESSAGE_LOCAL_ID
+                + " ELSE " + COLUMN_THREAD_LAST_MESSAGE_ID + " END, "
+                + COLUMN_THREAD_LAST_PREVIEW + " = CASE WHEN " + isNewest + " THEN " + newPreview
+                + " ELSE " + COLUMN_THREAD_LAST_PREVIEW + " END, "
+                + COLUMN_THREAD_LAST_DATE + " = MAX(" + COLUMN_THREAD_LAST_DATE + ", new." + COLUMN_MESSAGE_DATE + ")"
+                + " WHERE " + COLUMN_THREAD_KEY + " = " + newKey + "; END");
+        db.execSQL("CREATE TRIGGER " + TABLE_THREADS + "_" + table + "_ad AFTER DELETE ON " + table
+                + " BEGIN UPDATE " + TABLE_THREADS + " SET "
+                + COLUMN_THREAD_TOTAL_COUNT + " = " + COLUMN_THREAD_TOTAL_COUNT + " - 1, "
+                + COLUMN_THREAD_UNREAD_COUNT + " = MAX(0, " + COLUMN_THREAD_UNREAD_COUNT + " - (old."
+                + COLUMN_MESSAGE_BOX_TYPE + " = " + BOX_TYPE_INBOX + " AND old." + COLUMN_MESSAGE_DATE + " > "
+                + COLUMN_THREAD_LAST_READ_DATE + "))"
+                + " WHERE " + COLUMN_THREAD_KEY + " = " + oldKey + ";"
+                + " DELETE FROM " + TABLE_THREADS + " WHERE " + COLUMN_THREAD_KEY + " = " + oldKey
+                + " AND " + COLUMN_THREAD_TOTAL_COUNT + " <= 0; END");
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        // id is the rowid, so every index below already ends with it and serves ORDER BY ... id too.
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_documents_timestamp ON " + TABLE_DOCUMENTS
+                + "(" + COLUMN_TIMESTAMP + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_documents_category_timestamp ON " + TABLE_DOCUMENTS
+                + "(" + COLUMN_CATEGORY + ", " + COLUMN_TIMESTAMP + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_date ON " + TABLE_MESSAGES
+                + "(" + COLUMN_MESSAGE_DATE + ")");
+        // message_attachments lookups by messageLocalId use the UNIQUE(messageLocalId, providerPartId) index.
     }
 
     private void createMessageTables(SQLiteDatabase db) {
@@ -111,25 +632,63 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(createAttachmentsTable);
     }
 
+    public void checkpoint() {
+        runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(TRUNCATE)");
+    }
+
+    private void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+
+    // PRAGMA setters are read-only statements as far as the connection pool is concerned, so on their own
+    // they may run on a reader connection. A transaction pins them to the primary connection.
+    private void runPragmaOnPrimary(SQLiteDatabase db, String pragma) {
+        db.beginTransactionNonExclusive();
+        try {
+            runPragma(db, pragma);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     public void setPassword(String password) {
+        String hash = passwordHasher.hash(password);
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_AUTH, null, null);
-        
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_PASSWORD, hashPassword(password));
-        db.insert(TABLE_AUTH, null, values);
-        db.close();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_AUTH, null, null);
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PASSWORD, hash);
+            db.insert(TABLE_AUTH, null, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        synchronized (this) {
+            passwordHash = hash;
+            passwordHashLoaded = true;
+        }
     }
 
+    // A correct password stored with an outdated scheme or cost is re-hashed on the spot.
     public boolean verifyPassword(String password) {
         String storedHash = getPasswordHash();
-        if (storedHash == null) {
+        if (storedHash == null || !passwordHasher.verify(password, storedHash)) {
             return false;
         }
-        return storedHash.equals(hashPassword(password));
+        if (passwordHasher.needsRehash(storedHash)) {
+            setPassword(password);
+        }
+        return true;
     }
 
-    private String getPasswordHash() {
+    private synchronized String getPasswordHash() {
+        if (passwordHashLoaded) {
+            return passwordHash;
+        }
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.query(TABLE_AUTH, new String[]{COLUMN_PASSWORD},
                 null, null, null, null, null);
@@ -139,28 +698,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             password = cursor.getString(0);
         }
         cursor.close();
-        db.close();
+        passwordHash = password;
+        passwordHashLoaded = true;
         return password;
     }
 
-    private String hashPassword(String password) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(password.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
-        }
-    }
-
     public boolean hasPassword() {
         return getPasswordHash() != null;
     }
@@ -169,75 +711,355 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(COLUMN_TITLE, document.getTitle());
-        values.put(COLUMN_CONTENT, document.getContent());
+        String content = document.getContent();
+        String contentFile = null;
+        if (content != null && content.length() > contentInlineLimit) {
+            try {
+                contentFile = contentStore.write(content);
+                content = content.substring(0, Math.min(content.length(), EXTERNAL_CONTENT_PREVIEW_LENGTH));
+            } catch (IOException e) {
+                Log.w(TAG, "Keeping oversized content inline", e);
+            }
+        }
+        values.put(COLUMN_CONTENT, content);
+        values.put(COLUMN_CONTENT_FILE, contentFile);
         values.put(COLUMN_CATEGORY, document.getCategory());
         values.put(COLUMN_TIMESTAMP, document.getTimestamp());
         values.put(COLUMN_ATTACHMENT_URI, document.getAttachmentUri());
         values.put(COLUMN_ATTACHMENT_MIME, document.getAttachmentMimeType());
         values.put(COLUMN_ATTACHMENT_NAME, document.getAttachmentName());
-        
-        long id = db.insert(TABLE_DOCUMENTS, null, values);
-        db.close();
+
+        long id;
+        db.beginTransaction();
+        try {
+            id = db.insert(TABLE_DOCUMENTS, null, values);
+            if (id != -1 && contentFile != null) {
+                indexFulltext(db, id, document.getTitle(), document.getContent());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (id != -1) {
+            Document cached = copyDocument(document);
+            cached.setId((int) id);
+            cached.setContent(content);
+            cached.setContentFile(contentFile);
+            documentCache.put(cached.getId(), cached);
+        } else {
+            contentStore.delete(contentFile);
+        }
         return id;
     }
 
-    public List<Document> getAllDocuments() {
-        List<Document> documents = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_DOCUMENTS, null, null, null, null, null,
-                COLUMN_TIMESTAMP + " DESC");
+    public List<DocumentSummary> getDocumentsPage(List<String> categories, DocumentSummary after, int limit) {
+        return queryDocumentsPage(categories, after, 0, limit);
+    }
+
+    // Offset form for a page whose predecessor is no longer in memory; each branch still stops early.
+    public List<DocumentSummary> getDocumentsPage(List<String> categories, int offset, int limit) {
+        return queryDocumentsPage(categories, null, offset, limit);
+    }
+
+    private List<DocumentSummary> queryDocumentsPage(List<String> categories, DocumentSummary after, int offset,
+                                                     int limit) {
+        List<DocumentSummary> documents = new ArrayList<>();
+        if (categories != null && categories.isEmpty()) {
+            return documents;
+        }
+
+        String keyset = "";
+        List<String> keysetArgs = new ArrayList<>();
+        if (after != null) {
+            // The leading <= keeps the predicate a range on the (category, timestamp) index.
+            keyset = COLUMN_TIMESTAMP + " <= ? AND (" + COLUMN_TIMESTAMP + " < ? OR ("
+                    + COLUMN_TIMESTAMP + " = ? AND " + COLUMN_ID + " < ?))";
+            String timestamp = String.valueOf(after.getTimestamp());
+            keysetArgs.add(timestamp);
+            keysetArgs.add(timestamp);
+            keysetArgs.add(timestamp);
+            keysetArgs.add(String.valueOf(after.getId()));
+        }
 
+        // category IN (...) would make SQLite sort every matching row; one branch per category instead walks
+        // each slice of the index in order and the compound merges them, stopping after limit rows.
+        String columns = "SELECT " + TextUtils.join(", ", documentSummaryColumns("", previewExpression(COLUMN_CONTENT)))
+                + " FROM " + TABLE_DOCUMENTS;
+        StringBuilder sql = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+        if (categories == null) {
+            sql.append(columns);
+            if (after != null) {
+                sql.append(" WHERE ").append(keyset);
+            }
+            selectionArgs.addAll(keysetArgs);
+        } else {
+            for (String category : categories) {
+                if (sql.length() > 0) {
+                    sql.append(" UNION ALL ");
+                }
+                sql.append(columns).append(" WHERE ").append(COLUMN_CATEGORY).append(" = ?");
+                if (after != null) {
+                    sql.append(" AND ").append(keyset);
+                }
+                selectionArgs.add(category);
+                selectionArgs.addAll(keysetArgs);
+            }
+        }
+        sql.append(" ORDER BY ").append(COLUMN_TIMESTAMP).append(" DESC, ").append(COLUMN_ID).append(" DESC")
+                .append(" LIMIT ").append(limit).append(" OFFSET ").append(offset);
+
+        Cursor cursor = getReadableDatabase().rawQuery(sql.toString(), selectionArgs.toArray(new String[0]));
         if (cursor.moveToFirst()) {
             do {
-                documents.add(readDocumentFromCursor(cursor));
+                documents.add(readDocumentSummaryFromCursor(cursor));
             } while (cursor.moveToNext());
         }
         cursor.close();
-        db.close();
         return documents;
     }
 
-    public List<Document> getDocumentsByCategory(String category) {
-        List<Document> documents = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_DOCUMENTS, null,
-                COLUMN_CATEGORY + "=?", new String[]{category},
-                null, null, COLUMN_TIMESTAMP + " DESC");
-        
-        if (cursor.moveToFirst()) {
-            do {
-                documents.add(readDocumentFromCursor(cursor));
-            } while (cursor.moveToNext());
+    public List<TimelineEntry> getTimelinePage(int offset, int limit) {
+        return queryTimeline(null, offset, limit);
+    }
+
+    // Keyset continuation after the entry (timestamp, kind, id), in timeline order.
+    public List<TimelineEntry> getTimelineAfter(long timestamp, int kind, long id, int limit) {
+        return queryTimeline(new long[]{timestamp, kind, id}, 0, limit);
+    }
+
+    // Each branch walks its own date index and stops after offset + limit rows, so a page reads at most three
+    // times that however long the history is; the outer ORDER BY only merges those.
+    private List<TimelineEntry> queryTimeline(long[] after, int offset, int limit) {
+        int branchLimit = offset + limit;
+        String sql = "SELECT * FROM (" + timelineBranch(TABLE_DOCUMENTS, TimelineEntry.KIND_DOCUMENT, COLUMN_ID,
+                COLUMN_TIMESTAMP, COLUMN_TITLE, COLUMN_CATEGORY, COLUMN_ATTACHMENT_NAME,
+                "(" + COLUMN_ATTACHMENT_URI + " IS NOT NULL AND " + COLUMN_ATTACHMENT_URI + " != '')",
+                previewExpression(COLUMN_CONTENT), "NULL", after, branchLimit) + ")"
+                + " UNION ALL SELECT * FROM (" + timelineBranch(TABLE_MESSAGES, TimelineEntry.KIND_MESSAGE,
+                COLUMN_MESSAGE_LOCAL_ID, COLUMN_MESSAGE_DATE, COLUMN_MESSAGE_ADDRESS, "NULL", "NULL",
+                COLUMN_MESSAGE_HAS_ATTACHMENTS, previewExpression(COLUMN_MESSAGE_BODY), COLUMN_MESSAGE_PROVIDER_TYPE,
+                after, branchLimit) + ")"
+                + " UNION ALL SELECT * FROM (" + timelineBranch(TABLE_MESSAGES_ARCHIVE, TimelineEntry.KIND_MESSAGE,
+                COLUMN_MESSAGE_LOCAL_ID, COLUMN_MESSAGE_DATE, COLUMN_MESSAGE_ADDRESS, "NULL", "NULL",
+                COLUMN_MESSAGE_HAS_ATTACHMENTS, COLUMN_PREVIEW, COLUMN_MESSAGE_PROVIDER_TYPE, after, branchLimit) + ")"
+                + " ORDER BY " + COLUMN_TIMELINE_TIMESTAMP + " DESC, " + COLUMN_TIMELINE_KIND + " DESC, "
+                + COLUMN_TIMELINE_ID + " DESC LIMIT " + limit + " OFFSET " + offset;
+        List<TimelineEntry> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(sql, null);
+        while (cursor.moveToNext()) {
+            entries.add(readTimelineEntryFromCursor(cursor));
         }
         cursor.close();
-        db.close();
-        return documents;
+        return entries;
     }
 
-    public List<Document> getDocumentsByCategories(List<String> categories) {
-        List<Document> documents = new ArrayList<>();
-        if (categories == null || categories.isEmpty()) {
+    private String timelineBranch(String table, int kind, String idColumn, String timestampColumn, String titleColumn,
+                                  String categoryExpression, String attachmentNameExpression,
+                                  String hasAttachmentExpression, String previewExpression,
+                                  String providerTypeExpression, long[] after, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(kind).append(" AS ").append(COLUMN_TIMELINE_KIND).append(", ")
+                .append(idColumn).append(" AS ").append(COLUMN_TIMELINE_ID).append(", ")
+                .append(titleColumn).append(" AS ").append(COLUMN_TITLE).append(", ")
+                .append(categoryExpression).append(" AS ").append(COLUMN_CATEGORY).append(", ")
+                .append(timestampColumn).append(" AS ").append(COLUMN_TIMELINE_TIMESTAMP).append(", ")
+                .append(attachmentNameExpression).append(" AS ").append(COLUMN_ATTACHMENT_NAME).append(", ")
+                .append(hasAttachmentExpression).append(" AS ").append(COLUMN_HAS_ATTACHMENT).append(", ")
+                .append(previewExpression).append(" AS ").append(COLUMN_PREVIEW).append(", ")
+                .append(providerTypeExpression).append(" AS ").append(COLUMN_MESSAGE_PROVIDER_TYPE)
+                .append(" FROM ").append(table);
+        if (after != null) {
+            // The kind is fixed per branch, so the tie on equal timestamps resolves to a plain condition here.
+            // The leading <= keeps the whole predicate a range scan on the date index.
+            String tie = kind < after[1] ? "1" : kind == after[1] ? idColumn + " < " + after[2] : "0";
+            sql.append(" WHERE ").append(timestampColumn).append(" <= ").append(after[0])
+                    .append(" AND (").append(timestampColumn).append(" < ").append(after[0])
+                    .append(" OR ").append(tie).append(")");
+        }
+        return sql.append(" ORDER BY ").append(timestampColumn).append(" DESC, ").append(idColumn).append(" DESC")
+                .append(" LIMIT ").append(limit).toString();
+    }
+
+    private TimelineEntry readTimelineEntryFromCursor(Cursor cursor) {
+        long id = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMELINE_ID));
+        String title = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TITLE));
+        long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMELINE_TIMESTAMP));
+        boolean hasAttachment = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_HAS_ATTACHMENT)) == 1;
+        String preview = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PREVIEW));
+        if (cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_TIMELINE_KIND)) == TimelineEntry.KIND_DOCUMENT) {
+            return new TimelineEntry(new DocumentSummary((int) id, title,
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CATEGORY)), timestamp,
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_NAME)), hasAttachment, preview));
+        }
+        return new TimelineEntry(new MessageSummary(id,
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_PROVIDER_TYPE)), title, timestamp,
+                preview, hasAttachment));
+    }
+
+    public List<DocumentSummary> searchDocuments(String query, List<String> categories, int offset, int limit) {
+        List<DocumentSummary> documents = new ArrayList<>();
+        String match = SearchUtils.toMatchExpression(query);
+        if (match == null || (categories != null && categories.isEmpty())) {
             return documents;
         }
 
-        SQLiteDatabase db = this.getReadableDatabase();
-        String placeholders = TextUtils.join(",", Collections.nCopies(categories.size(), "?"));
-        Cursor cursor = db.query(TABLE_DOCUMENTS, null,
-                COLUMN_CATEGORY + " IN (" + placeholders + ")",
-                categories.toArray(new String[0]),
-                null, null, COLUMN_TIMESTAMP + " DESC");
+        List<String> args = new ArrayList<>();
+        args.add(match);
+        String categoryClause = searchCategoryClause(categories, args);
 
-        if (cursor.moveToFirst()) {
-            do {
-                documents.add(readDocumentFromCursor(cursor));
-            } while (cursor.moveToNext());
+        // Side-file documents that only match past their preview come from the full-text index, which has no
+        // snippet() or offsets(): they show their preview and rank after the scored hits.
+        String sql = "SELECT " + TextUtils.join(", ", documentSummaryColumns("d.", snippetExpression(TABLE_DOCUMENTS_FTS)))
+                + ", " + rankExpression(TABLE_DOCUMENTS_FTS) + " AS score"
+                + " FROM " + TABLE_DOCUMENTS_FTS + " JOIN " + TABLE_DOCUMENTS + " d ON d." + COLUMN_ID
+                + " = " + TABLE_DOCUMENTS_FTS + ".docid"
+                + " WHERE " + TABLE_DOCUMENTS_FTS + " MATCH ?1" + categoryClause
+                + " UNION ALL SELECT "
+                + TextUtils.join(", ", documentSummaryColumns("d.", previewExpression("d." + COLUMN_CONTENT)))
+                + ", 0 AS score"
+                + " FROM " + TABLE_DOCUMENTS_FULLTEXT_FTS + " JOIN " + TABLE_DOCUMENTS + " d ON d." + COLUMN_ID
+                + " = " + TABLE_DOCUMENTS_FULLTEXT_FTS + ".docid"
+                + " WHERE " + TABLE_DOCUMENTS_FULLTEXT_FTS + " MATCH ?1" + categoryClause
+                + " AND d." + COLUMN_ID + " NOT IN (SELECT docid FROM " + TABLE_DOCUMENTS_FTS
+                + " WHERE " + TABLE_DOCUMENTS_FTS + " MATCH ?1)"
+                + " ORDER BY score DESC, " + COLUMN_TIMESTAMP + " DESC"
+                + " LIMIT " + limit + " OFFSET " + offset;
+        Cursor cursor = getReadableDatabase().rawQuery(sql, args.toArray(new String[0]));
+        while (cursor.moveToNext()) {
+            documents.add(readDocumentSummaryFromCursor(cursor));
         }
         cursor.close();
-        db.close();
         return documents;
     }
 
+    // Same hits as searchDocuments: scored matches plus side-file documents that only match past their preview.
+    public int countDocumentSearchHits(String query, List<String> categories) {
+        String match = SearchUtils.toMatchExpression(query);
+        if (match == null || (categories != null && categories.isEmpty())) {
+            return 0;
+        }
+        List<String> args = new ArrayList<>();
+        args.add(match);
+        String categoryClause = searchCategoryClause(categories, args);
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT (SELECT COUNT(*) FROM " + TABLE_DOCUMENTS_FTS + " JOIN " + TABLE_DOCUMENTS + " d ON d."
+                        + COLUMN_ID + " = " + TABLE_DOCUMENTS_FTS + ".docid"
+                        + " WHERE " + TABLE_DOCUMENTS_FTS + " MATCH ?1" + categoryClause + ")"
+                        + " + (SELECT COUNT(*) FROM " + TABLE_DOCUMENTS_FULLTEXT_FTS + " JOIN " + TABLE_DOCUMENTS
+                        + " d ON d." + COLUMN_ID + " = " + TABLE_DOCUMENTS_FULLTEXT_FTS + ".docid"
+                        + " WHERE " + TABLE_DOCUMENTS_FULLTEXT_FTS + " MATCH ?1" + categoryClause
+                        + " AND d." + COLUMN_ID + " NOT IN (SELECT docid FROM " + TABLE_DOCUMENTS_FTS
+                        + " WHERE " + TABLE_DOCUMENTS_FTS + " MATCH ?1))",
+                args.toArray(new String[0]));
+    }
+
+    // Numbered from ?2 since ?1 is the MATCH expression, shared by every branch of the search.
+    private String searchCategoryClause(List<String> categories, List<String> args) {
+        if (categories == null) {
+            return "";
+        }
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < categories.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ",?").append(i + 2);
+        }
+        args.addAll(categories);
+        return " AND d." + COLUMN_CATEGORY + " IN (" + placeholders + ")";
+    }
+
+    public int countMessageSearchHits(String query) {
+        String match = SearchUtils.toMatchExpression(query);
+        if (match == null) {
+            return 0;
+        }
+        // The archive index is contentless and may still hold entries of a half-finished purge, hence the join.
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT (SELECT COUNT(*) FROM " + TABLE_MESSAGES_FTS + " WHERE " + TABLE_MESSAGES_FTS + " MATCH ?1)"
+                        + " + (SELECT COUNT(*) FROM " + TABLE_MESSAGES_ARCHIVE_FTS + " JOIN " + TABLE_MESSAGES_ARCHIVE
+                        + " a ON a." + COLUMN_MESSAGE_LOCAL_ID + " = " + TABLE_MESSAGES_ARCHIVE_FTS + ".docid"
+                        + " WHERE " + TABLE_MESSAGES_ARCHIVE_FTS + " MATCH ?1)",
+                new String[]{match});
+    }
+
+    public List<MessageSummary> searchMessages(String query, int offset, int limit) {
+        List<MessageSummary> messages = new ArrayList<>();
+        String match = SearchUtils.toMatchExpression(query);
+        if (match == null) {
+            return messages;
+        }
+
+        // Contentless FTS4 has neither snippet() nor offsets(), so archived hits come after recent ones,
+        // newest first, with their stored preview.
+        String sql = "SELECT " + TextUtils.join(", ", messageSummaryColumns("m.", snippetExpression(TABLE_MESSAGES_FTS)))
+                + ", " + rankExpression(TABLE_MESSAGES_FTS) + " AS score, 0 AS tier"
+                + " FROM " + TABLE_MESSAGES_FTS + " JOIN " + TABLE_MESSAGES + " m ON m." + COLUMN_MESSAGE_LOCAL_ID
+                + " = " + TABLE_MESSAGES_FTS + ".docid"
+                + " WHERE " + TABLE_MESSAGES_FTS + " MATCH ?1"
+                + " UNION ALL SELECT " + TextUtils.join(", ", messageSummaryColumns("a.", "a." + COLUMN_PREVIEW))
+                + ", 0, 1"
+                + " FROM " + TABLE_MESSAGES_ARCHIVE_FTS + " JOIN " + TABLE_MESSAGES_ARCHIVE + " a ON a."
+                + COLUMN_MESSAGE_LOCAL_ID + " = " + TABLE_MESSAGES_ARCHIVE_FTS + ".docid"
+                + " WHERE " + TABLE_MESSAGES_ARCHIVE_FTS + " MATCH ?1"
+                + " ORDER BY tier, score DESC, " + COLUMN_MESSAGE_DATE + " DESC"
+                + " LIMIT " + limit + " OFFSET " + offset;
+        Cursor cursor = getReadableDatabase().rawQuery(sql, new String[]{match});
+        while (cursor.moveToNext()) {
+            messages.add(readMessageSummaryFromCursor(cursor));
+        }
+        cursor.close();
+        return messages;
+    }
+
+    private String snippetExpression(String ftsTable) {
+        return "snippet(" + ftsTable + ", '" + SearchUtils.HIGHLIGHT_START + "', '" + SearchUtils.HIGHLIGHT_END
+                + "', '" + SNIPPET_ELLIPSIS + "', -1, " + SNIPPET_TOKENS + ")";
+    }
+
+    private String previewExpression(String column) {
+        return "substr(" + column + ", 1, " + PREVIEW_LENGTH + ")";
+    }
+
+    private String[] documentSummaryColumns(String prefix, String previewExpression) {
+        return new String[]{
+                prefix + COLUMN_ID,
+                prefix + COLUMN_TITLE,
+                prefix + COLUMN_CATEGORY,
+                prefix + COLUMN_TIMESTAMP,
+                prefix + COLUMN_ATTACHMENT_NAME,
+                "(" + prefix + COLUMN_ATTACHMENT_URI + " IS NOT NULL AND " + prefix + COLUMN_ATTACHMENT_URI
+                        + " != '') AS " + COLUMN_HAS_ATTACHMENT,
+                previewExpression + " AS " + COLUMN_PREVIEW
+        };
+    }
+
+    private String[] messageSummaryColumns(String prefix, String previewExpression) {
+        return new String[]{
+                prefix + COLUMN_MESSAGE_LOCAL_ID,
+                prefix + COLUMN_MESSAGE_PROVIDER_TYPE,
+                prefix + COLUMN_MESSAGE_ADDRESS,
+                prefix + COLUMN_MESSAGE_DATE,
+                prefix + COLUMN_MESSAGE_HAS_ATTACHMENTS,
+                previewExpression + " AS " + COLUMN_PREVIEW
+        };
+    }
+
+    private String rankExpression(String ftsTable) {
+        // FTS4 has no bm25(); offsets() lists four numbers per matched term occurrence, so its
+        // space count grows with the number of hits and serves as a relevance score.
+        String offsets = "offsets(" + ftsTable + ")";
+        return "(length(" + offsets + ") - length(replace(" + offsets + ", ' ', '')))";
+    }
+
+    public Document peekDocument(int id) {
+        Document cached = documentCache.get(id);
+        return cached == null ? null : copyDocument(cached);
+    }
+
     public Document getDocument(int id) {
+        Document cached = peekDocument(id);
+        if (cached != null) {
+            return cached;
+        }
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.query(TABLE_DOCUMENTS, null,
                 COLUMN_ID + "=?", new String[]{String.valueOf(id)},
@@ -246,49 +1068,425 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         Document document = null;
         if (cursor.moveToFirst()) {
             document = readDocumentFromCursor(cursor);
+            documentCache.put(id, copyDocument(document));
         }
         cursor.close();
-        db.close();
         return document;
     }
 
+    public int getDocumentCacheHits() {
+        return documentCache.hitCount();
+    }
+
+    public int getDocumentCacheMisses() {
+        return documentCache.missCount();
+    }
+
+    public int getMessageCacheHits() {
+        return messageCache.hitCount();
+    }
+
+    public int getMessageCacheMisses() {
+        return messageCache.missCount();
+    }
+
+    private Document copyDocument(Document document) {
+        Document copy = new Document(document.getId(), document.getTitle(), document.getContent(), document.getCategory(),
+                document.getTimestamp(), document.getAttachmentUri(), document.getAttachmentMimeType(),
+                document.getAttachmentName());
+        copy.setContentFile(document.getContentFile());
+        return copy;
+    }
+
     public boolean updateDocumentCategory(int id, String newCategory) {
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(COLUMN_CATEGORY, newCategory);
         int rowsUpdated = db.update(TABLE_DOCUMENTS, values, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
-        db.close();
+        Document cached = documentCache.get(id);
+        if (cached != null) {
+            cached.setCategory(newCategory);
+        }
         return rowsUpdated > 0;
     }
 
     public void deleteDocument(int id) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_DOCUMENTS, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
-        db.close();
+        String[] args = new String[]{String.valueOf(id)};
+        String contentFile = DatabaseUtils.stringForQuery(db, "SELECT IFNULL(MAX(" + COLUMN_CONTENT_FILE + "), '') FROM "
+                + TABLE_DOCUMENTS + " WHERE " + COLUMN_ID + "=?", args);
+        db.delete(TABLE_DOCUMENTS, COLUMN_ID + "=?", args);
+        documentCache.remove(id);
+        if (!contentFile.isEmpty()) {
+            contentStore.delete(contentFile);
+        }
     }
 
     public int deleteAllDocuments() {
         SQLiteDatabase db = this.getWritableDatabase();
         int rowsDeleted = db.delete(TABLE_DOCUMENTS, null, null);
-        db.close();
+        clearFulltextIndex(db);
+        documentCache.evictAll();
+        contentStore.deleteAll();
         return rowsDeleted;
     }
 
+    private void clearFulltextIndex(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_DOCUMENTS_FULLTEXT_FTS + "(" + TABLE_DOCUMENTS_FULLTEXT_FTS
+                + ") VALUES('delete-all')");
+    }
+
+    public int deleteDocumentsChunk(int limit) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<Long> ids = new ArrayList<>();
+        List<String> contentFiles = new ArrayList<>();
+        db.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = db.query(TABLE_DOCUMENTS, new String[]{COLUMN_ID, COLUMN_CONTENT_FILE},
+                    null, null, null, null, null, String.valueOf(Math.min(limit, MAX_SQL_VARIABLES)));
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                if (!cursor.isNull(1)) {
+                    contentFiles.add(cursor.getString(1));
+                }
+            }
+            cursor.close();
+            if (!ids.isEmpty()) {
+                db.delete(TABLE_DOCUMENTS, COLUMN_ID + " IN (" + placeholders(ids.size()) + ")", toArgs(ids));
+            } else {
+                clearFulltextIndex(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        documentCache.evictAll();
+        for (String contentFile : contentFiles) {
+            contentStore.delete(contentFile);
+        }
+        return ids.size();
+    }
+
+    public int deleteMessagesChunk(int limit) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<Long> ids = new ArrayList<>();
+        List<String> attachmentPaths = new ArrayList<>();
+        db.beginTransactionNonExclusive();
+        try {
+            // Recent messages first, then the archive.
+            String table = TABLE_MESSAGES;
+            queryIds(db, table, limit, ids);
+            if (ids.isEmpty()) {
+                table = TABLE_MESSAGES_ARCHIVE;
+                queryIds(db, table, limit, ids);
+            }
+            if (!ids.isEmpty()) {
+                String inClause = " IN (" + placeholders(ids.size()) + ")";
+                String[] args = toArgs(ids);
+                Cursor attachments = db.query(TABLE_ATTACHMENTS, new String[]{COLUMN_ATTACHMENT_PATH},
+                        COLUMN_ATTACHMENT_MESSAGE_ID + inClause, args, null, null, null);
+                while (attachments.moveToNext()) {
+                    attachmentPaths.add(attachments.getString(0));
+                }
+                attachments.close();
+                db.delete(TABLE_ATTACHMENTS, COLUMN_ATTACHMENT_MESSAGE_ID + inClause, args);
+                db.delete(table, COLUMN_MESSAGE_LOCAL_ID + inClause, args);
+            } else {
+                // Contentless FTS4 rows cannot be deleted one by one; the index is dropped in one go at the end.
+                db.execSQL("INSERT INTO " + TABLE_MESSAGES_ARCHIVE_FTS + "(" + TABLE_MESSAGES_ARCHIVE_FTS
+                        + ") VALUES('delete-all')");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        messageCache.evictAll();
+        // Files go only once the rows are gone, so a failed chunk never leaves rows pointing at nothing.
+        for (String path : attachmentPaths) {
+            if (path != null) {
+                File file = new File(path);
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Unable to delete " + file);
+                }
+            }
+        }
+        return ids.size();
+    }
+
+    private void queryIds(SQLiteDatabase db, String table, int limit, List<Long> ids) {
+        Cursor cursor = db.query(table, new String[]{COLUMN_MESSAGE_LOCAL_ID},
+                null, null, null, null, null, String.valueOf(Math.min(limit, MAX_SQL_VARIABLES)));
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+    }
+
+    // Moves up to limit messages dated before cutoffDate, oldest first, into the archive.
+    public int archiveMessagesChunk(long cutoffDate, int limit, boolean compressBodies) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<Long> ids = new ArrayList<>();
+        SQLiteStatement archiveStatement = db.compileStatement("INSERT INTO " + TABLE_MESSAGES_ARCHIVE + " ("
+                + COLUMN_MESSAGE_LOCAL_ID + ", " + COLUMN_MESSAGE_PROVIDER_ID + ", " + COLUMN_MESSAGE_PROVIDER_TYPE + ", "
+                + COLUMN_MESSAGE_ADDRESS + ", " + COLUMN_MESSAGE_DATE + ", " + COLUMN_MESSAGE_BODY + ", "
+                + COLUMN_ARCHIVE_BODY_DEFLATED + ", " + COLUMN_MESSAGE_BOX_TYPE + ", "
+                + COLUMN_MESSAGE_HAS_ATTACHMENTS + ", " + COLUMN_PREVIEW + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement indexStatement = db.compileStatement("INSERT INTO " + TABLE_MESSAGES_ARCHIVE_FTS
+                + "(docid, " + COLUMN_MESSAGE_ADDRESS + ", " + COLUMN_MESSAGE_BODY + ") VALUES (?, ?, ?)");
+        db.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = db.query(TABLE_MESSAGES, null, COLUMN_MESSAGE_DATE + " < ?",
+                    new String[]{String.valueOf(cutoffDate)}, null, null, COLUMN_MESSAGE_DATE,
+                    String.valueOf(Math.min(limit, MAX_SQL_VARIABLES)));
+            while (cursor.moveToNext()) {
+                VaultMessage message = readMessageFromCursor(cursor);
+                String body = message.getBody();
+                byte[] deflated = compressBodies && body != null && body.length() >= ARCHIVE_COMPRESS_MIN_LENGTH
+                        ? CompressionUtils.deflate(body) : null;
+
+                archiveStatement.clearBindings();
+                archiveStatement.bindLong(1, message.getLocalId());
+                archiveStatement.bindLong(2, message.getProviderId());
+                bindNullableString(archiveStatement, 3, message.getProviderType());
+                bindNullableString(archiveStatement, 4, message.getAddress());
+                archiveStatement.bindLong(5, message.getDate());
+                if (deflated != null) {
+                    archiveStatement.bindNull(6);
+                    archiveStatement.bindBlob(7, deflated);
+                } else {
+                    bindNullableString(archiveStatement, 6, body);
+                    archiveStatement.bindNull(7);
+                }
+                archiveStatement.bindLong(8, message.getBoxType());
+                archiveStatement.bindLong(9, message.hasAttachments() ? 1 : 0);
+                bindNullableString(archiveStatement, 10,
+                        body == null ? null : body.substring(0, Math.min(body.length(), PREVIEW_LENGTH)));
+                archiveStatement.executeInsert();
+
+                indexStatement.clearBindings();
+                indexStatement.bindLong(1, message.getLocalId());
+                bindNullableString(indexStatement, 2, message.getAddress());
+                bindNullableString(indexStatement, 3, body);
+                indexStatement.executeInsert();
+
+                ids.add(message.getLocalId());
+            }
+            cursor.close();
+            if (!ids.isEmpty()) {
+                db.delete(TABLE_MESSAGES, COLUMN_MESSAGE_LOCAL_ID + " IN (" + placeholders(ids.size()) + ")",
+                        toArgs(ids));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            archiveStatement.close();
+            indexStatement.close();
+        }
+        return ids.size();
+    }
+
+    // Older versions saved every received message twice: as a messages row and as a document.
+    // Copies whose message is found are deleted; the rest move to fallbackCategory so nothing is lost.
+    public int migrateMessageDocumentsChunk(List<String> messageCategories, String fallbackCategory, int limit) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<Long> duplicateIds = new ArrayList<>();
+        List<Long> orphanIds = new ArrayList<>();
+        List<String> contentFiles = new ArrayList<>();
+        db.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = db.query(TABLE_DOCUMENTS,
+                    new String[]{COLUMN_ID, COLUMN_CONTENT, COLUMN_TIMESTAMP, COLUMN_CONTENT_FILE},
+                    COLUMN_CATEGORY + " IN (" + placeholders(messageCategories.size()) + ")",
+                    messageCategories.toArray(new String[0]), null, null, null,
+                    String.valueOf(Math.min(limit, MAX_SQL_VARIABLES)));
+            while (cursor.moveToNext()) {
+                String content = readFullContent(cursor.getString(1), cursor.isNull(3) ? null : cursor.getString(3));
+                if (content != null && hasMatchingMessage(db, MessageFormatter.parseDocumentSender(content),
+                        cursor.getLong(2), MessageFormatter.parseDocumentBody(content))) {
+                    duplicateIds.add(cursor.getLong(0));
+                    if (!cursor.isNull(3)) {
+                        contentFiles.add(cursor.getString(3));
+                    }
+                } else {
+                    orphanIds.add(cursor.getLong(0));
+                }
+            }
+            cursor.close();
+            if (!duplicateIds.isEmpty()) {
+                db.delete(TABLE_DOCUMENTS, COLUMN_ID + " IN (" + placeholders(duplicateIds.size()) + ")",
+                        toArgs(duplicateIds));
+            }
+            if (!orphanIds.isEmpty()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_CATEGORY, fallbackCategory);
+                db.update(TABLE_DOCUMENTS, values, COLUMN_ID + " IN (" + placeholders(orphanIds.size()) + ")",
+                        toArgs(orphanIds));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        documentCache.evictAll();
+        for (String contentFile : contentFiles) {
+            contentStore.delete(contentFile);
+        }
+        return duplicateIds.size() + orphanIds.size();
+    }
+
+    // The row only keeps a preview of side-file documents; null when the side file cannot be read.
+    private String readFullContent(String content, String contentFile) {
+        if (contentFile == null) {
+            return content;
+        }
+        try {
+            return contentStore.read(contentFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read side file " + contentFile, e);
+            return null;
+        }
+    }
+
+    // Only a message with the same body counts. Bodies are compared in Java because archived ones may be
+    // deflated; a body that cannot be inflated never matches, so the document is kept.
+    private boolean hasMatchingMessage(SQLiteDatabase db, String address, long timestamp, String body) {
+        if (address == null || body == null) {
+            return false;
+        }
+        String expected = body.trim();
+        String selection = COLUMN_MESSAGE_ADDRESS + " = ? AND " + COLUMN_MESSAGE_DATE + " BETWEEN ? AND ?";
+        String[] args = new String[]{address, String.valueOf(timestamp - LEGACY_MESSAGE_MATCH_WINDOW_MS),
+                String.valueOf(timestamp + LEGACY_MESSAGE_MATCH_WINDOW_MS)};
+        boolean found = false;
+        Cursor cursor = db.query(TABLE_MESSAGES, new String[]{COLUMN_MESSAGE_BODY}, selection, args,
+                null, null, null);
+        while (!found && cursor.moveToNext()) {
+            found = !cursor.isNull(0) && expected.equals(cursor.getString(0).trim());
+        }
+        cursor.close();
+        if (found) {
+            return true;
+        }
+        cursor = db.query(TABLE_MESSAGES_ARCHIVE, new String[]{COLUMN_MESSAGE_BODY, COLUMN_ARCHIVE_BODY_DEFLATED},
+                selection, args, null, null, null);
+        while (!found && cursor.moveToNext()) {
+            String candidate = cursor.getString(0);
+            if (candidate == null && !cursor.isNull(1)) {
+                try {
+                    candidate = CompressionUtils.inflate(cursor.getBlob(1));
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Unable to inflate archived body", e);
+                }
+            }
+            found = candidate != null && expected.equals(candidate.trim());
+        }
+        cursor.close();
+        return found;
+    }
+
+    public int countMessagesBefore(long cutoffDate) {
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_MESSAGES,
+                COLUMN_MESSAGE_DATE + " < ?", new String[]{String.valueOf(cutoffDate)});
+    }
+
+    public void reclaimSpace() {
+        if (!ensureIncrementalAutoVacuum()) {
+            runPragmaOnPrimary(getWritableDatabase(), "PRAGMA incremental_vacuum");
+        }
+        checkpoint();
+    }
+
+    // A file whose header still says auto_vacuum=NONE needs one full VACUUM to switch modes; the setting and
+    // the VACUUM must run on the same connection, and VACUUM, being a write, always runs on the primary one.
+    // Returns true only when the file now reports incremental mode, in which case every free page was released.
+    public boolean ensureIncrementalAutoVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (autoVacuumConversionFailed || readAutoVacuumMode(db) == AUTO_VACUUM_INCREMENTAL) {
+            return false;
+        }
+        runPragmaOnPrimary(db, "PRAGMA auto_vacuum=INCREMENTAL");
+        db.execSQL("VACUUM");
+        boolean converted = readAutoVacuumMode(db) == AUTO_VACUUM_INCREMENTAL;
+        if (!converted) {
+            // Not retried in this process: a full VACUUM on every maintenance run would cost more than it saves.
+            autoVacuumConversionFailed = true;
+            Log.w(TAG, "VACUUM did not switch the database to incremental auto-vacuum");
+        }
+        return converted;
+    }
+
+    private long readAutoVacuumMode(SQLiteDatabase db) {
+        db.beginTransactionNonExclusive();
+        try {
+            return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void incrementalVacuum(int pages) {
+        runPragmaOnPrimary(getWritableDatabase(), "PRAGMA incremental_vacuum(" + pages + ")");
+    }
+
+    public long getFreePageCount() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "PRAGMA freelist_count", null);
+    }
+
+    public StorageStats getStorageStats() {
+        SQLiteDatabase db = getReadableDatabase();
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        File file = new File(db.getPath());
+        File wal = new File(db.getPath() + "-wal");
+        return new StorageStats(file.length() + wal.length(), (pageCount - freePages) * pageSize);
+    }
+
     public int getDocumentCount() {
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT COUNT(" + COLUMN_ID + ") FROM " + TABLE_DOCUMENTS, null);
+        Cursor cursor = db.rawQuery("SELECT IFNULL(SUM(" + COLUMN_STATS_ITEM_COUNT + "), 0) FROM " + TABLE_CATEGORY_STATS
+                + " WHERE " + COLUMN_STATS_CATEGORY + " != ?", new String[]{STATS_KEY_MESSAGES});
 
         int count = 0;
         if (cursor.moveToFirst()) {
             count = cursor.getInt(0);
         }
         cursor.close();
-        db.close();
         return count;
     }
 
+    // Everything the timeline lists: documents of every category plus hot and archived messages.
+    public int getTimelineCount() {
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT IFNULL(SUM("
+                + COLUMN_STATS_ITEM_COUNT + "), 0) FROM " + TABLE_CATEGORY_STATS, null);
+    }
+
+    public int getCategoryDocumentCount(String category) {
+        return readStatsItemCount(category == null ? "" : category);
+    }
+
+    private int readStatsItemCount(String key) {
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT IFNULL((SELECT "
+                + COLUMN_STATS_ITEM_COUNT + " FROM " + TABLE_CATEGORY_STATS + " WHERE " + COLUMN_STATS_CATEGORY
+                + " = ?), 0)", new String[]{key});
+    }
+
+    public Map<String, CategoryStats> getCategoryStats() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_CATEGORY_STATS, null, null, null, null, null, null);
+        Map<String, CategoryStats> stats = new HashMap<>();
+        while (cursor.moveToNext()) {
+            String category = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_STATS_CATEGORY));
+            stats.put(category, new CategoryStats(category,
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_STATS_ITEM_COUNT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_STATS_ATTACHMENT_BYTES)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_STATS_NEWEST_TIMESTAMP))));
+        }
+        cursor.close();
+        return stats;
+    }
+
     private Document readDocumentFromCursor(Cursor cursor) {
-        return new Document(
+        Document document = new Document(
             cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID)),
             cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TITLE)),
             cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONTENT)),
@@ -298,34 +1496,156 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_MIME)),
             cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_NAME))
         );
+        document.setContentFile(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONTENT_FILE)));
+        return document;
+    }
+
+    private DocumentSummary readDocumentSummaryFromCursor(Cursor cursor) {
+        return new DocumentSummary(
+            cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TITLE)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CATEGORY)),
+            cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_NAME)),
+            cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_HAS_ATTACHMENT)) == 1,
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PREVIEW))
+        );
     }
 
     public long upsertMessage(VaultMessage message) {
         SQLiteDatabase db = this.getWritableDatabase();
         long existingId = getExistingMessageId(db, message.getProviderId(), message.getProviderType());
+        if (existingId == -1) {
+            long insertedId;
+            synchronized (insertMessageStatement) {
+                SQLiteStatement statement = insertMessageStatement.get(db);
+                bindMessageInsert(statement, message);
+                insertedId = statement.executeInsert();
+            }
+            if (insertedId != -1) {
+                return insertedId;
+            }
+            // The insert was ignored: another thread stored the message first, or it has been archived.
+            existingId = getExistingMessageId(db, message.getProviderId(), message.getProviderType());
+            if (existingId == -1) {
+                return queryMessageId(db, selectArchivedMessageIdStatement,
+                        message.getProviderId(), message.getProviderType());
+            }
+        }
+        // The update keeps an earlier hasAttachments flag and skips the write when nothing changed.
+        synchronized (updateMessageStatement) {
+            SQLiteStatement statement = updateMessageStatement.get(db);
+            bindMessageUpdate(statement, message);
+            statement.executeUpdateDelete();
+        }
+        messageCache.remove(existingId);
+        return existingId;
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_MESSAGE_PROVIDER_ID, message.getProviderId());
-        values.put(COLUMN_MESSAGE_PROVIDER_TYPE, message.getProviderType());
-        values.put(COLUMN_MESSAGE_ADDRESS, message.getAddress());
-        values.put(COLUMN_MESSAGE_DATE, message.getDate());
-        values.put(COLUMN_MESSAGE_BODY, message.getBody());
-        values.put(COLUMN_MESSAGE_BOX_TYPE, message.getBoxType());
-        values.put(COLUMN_MESSAGE_HAS_ATTACHMENTS, message.hasAttachments() ? 1 : 0);
-
-        long resultId;
-        if (existingId != -1) {
-            boolean existingHasAttachments = existingMessageHasAttachments(db, existingId);
-            if (existingHasAttachments && !message.hasAttachments()) {
-                values.put(COLUMN_MESSAGE_HAS_ATTACHMENTS, 1);
+    public int upsertMessages(Iterable<VaultMessage> messages) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        // Native UPSERT needs SQLite 3.24, which ships with Android 11; older devices update first, then insert.
+        boolean nativeUpsert = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+        SQLiteStatement upsertStatement = nativeUpsert ? db.compileStatement(SQL_UPSERT_MESSAGE) : null;
+        SQLiteStatement updateStatement = nativeUpsert ? null : db.compileStatement(SQL_UPDATE_MESSAGE_BY_PROVIDER);
+        SQLiteStatement insertStatement = nativeUpsert ? null : db.compileStatement(SQL_INSERT_MESSAGE);
+
+        int written = 0;
+        Iterator<VaultMessage> iterator = messages.iterator();
+        try {
+            while (iterator.hasNext()) {
+                db.beginTransactionNonExclusive();
+                try {
+                    int chunkCount = 0;
+                    while (chunkCount < UPSERT_CHUNK_SIZE && iterator.hasNext()) {
+                        VaultMessage message = iterator.next();
+                        if (nativeUpsert) {
+                            bindMessageInsert(upsertStatement, message);
+                            upsertStatement.executeInsert();
+                        } else {
+                            bindMessageUpdate(updateStatement, message);
+                            // Zero rows means either a new message or an unchanged one; the insert ignores the latter.
+                            if (updateStatement.executeUpdateDelete() == 0) {
+                                bindMessageInsert(insertStatement, message);
+                                insertStatement.executeInsert();
+                            }
+                        }
+                        chunkCount++;
+                    }
+                    db.setTransactionSuccessful();
+                    written += chunkCount;
+                } finally {
+                    db.endTransaction();
+                }
             }
-            db.update(TABLE_MESSAGES, values, COLUMN_MESSAGE_LOCAL_ID + "=?", new String[]{String.valueOf(existingId)});
-            resultId = existingId;
+        } finally {
+            closeStatement(upsertStatement);
+            closeStatement(updateStatement);
+            closeStatement(insertStatement);
+            // The batch path does not learn which local ids it touched.
+            messageCache.evictAll();
+        }
+        return written;
+    }
+
+    private void bindMessageInsert(SQLiteStatement statement, VaultMessage message) {
+        statement.clearBindings();
+        statement.bindLong(1, message.getProviderId());
+        bindNullableString(statement, 2, message.getProviderType());
+        bindNullableString(statement, 3, message.getAddress());
+        statement.bindLong(4, message.getDate());
+        bindNullableString(statement, 5, message.getBody());
+        statement.bindLong(6, message.getBoxType());
+        statement.bindLong(7, message.hasAttachments() ? 1 : 0);
+    }
+
+    private void bindMessageUpdate(SQLiteStatement statement, VaultMessage message) {
+        statement.clearBindings();
+        bindNullableString(statement, 1, message.getAddress());
+        statement.bindLong(2, message.getDate());
+        bindNullableString(statement, 3, message.getBody());
+        statement.bindLong(4, message.getBoxType());
+        statement.bindLong(5, message.hasAttachments() ? 1 : 0);
+        statement.bindLong(6, message.getProviderId());
+        bindNullableString(statement, 7, message.getProviderType());
+    }
+
+    private void bindNullableString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
         } else {
-            resultId = db.insert(TABLE_MESSAGES, null, values);
+            statement.bindString(index, value);
+        }
+    }
+
+    private final class CachedStatement {
+        private final String sql;
+        private SQLiteStatement statement;
+
+        CachedStatement(String sql) {
+            this.sql = sql;
+        }
+
+        // Callers hold this object's lock from binding through execution.
+        SQLiteStatement get(SQLiteDatabase db) {
+            if (statement == null) {
+                statement = db.compileStatement(sql);
+            }
+            return statement;
+        }
+
+        synchronized void close() {
+            if (statement != null) {
+                statement.close();
+                statement = null;
+            }
+        }
+    }
+
+    private void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
         }
-        db.close();
-        return resultId;
     }
 
     public void updateMessageAttachmentFlag(long localId, boolean hasAttachments) {
@@ -333,26 +1653,149 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         ContentValues values = new ContentValues();
         values.put(COLUMN_MESSAGE_HAS_ATTACHMENTS, hasAttachments ? 1 : 0);
         db.update(TABLE_MESSAGES, values, COLUMN_MESSAGE_LOCAL_ID + "=?", new String[]{String.valueOf(localId)});
-        db.close();
+        messageCache.remove(localId);
+    }
+
+    public VaultMessage peekMessage(long localId) {
+        return messageCache.get(localId);
     }
 
     public VaultMessage getMessage(long localId) {
+        VaultMessage cached = messageCache.get(localId);
+        if (cached != null) {
+            return cached;
+        }
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_MESSAGES, null, COLUMN_MESSAGE_LOCAL_ID + "=?",
-                new String[]{String.valueOf(localId)}, null, null, null);
+        String[] args = new String[]{String.valueOf(localId)};
+        Cursor cursor = db.query(TABLE_MESSAGES, null, COLUMN_MESSAGE_LOCAL_ID + "=?", args, null, null, null);
         VaultMessage message = null;
         if (cursor.moveToFirst()) {
             message = readMessageFromCursor(cursor);
         }
         cursor.close();
-        db.close();
+        if (message == null) {
+            cursor = db.query(TABLE_MESSAGES_ARCHIVE, null, COLUMN_MESSAGE_LOCAL_ID + "=?", args, null, null, null);
+            if (cursor.moveToFirst()) {
+                message = readMessageFromCursor(cursor);
+            }
+            cursor.close();
+        }
+        if (message != null) {
+            messageCache.put(localId, message);
+        }
         return message;
     }
 
-    public List<VaultMessage> getAllMessages() {
+    // Hot and archived messages, as kept by the category_stats triggers rather than counted row by row.
+    public int getMessageCount() {
+        return readStatsItemCount(STATS_KEY_MESSAGES);
+    }
+
+    public int getArchivedMessageCount() {
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_MESSAGES_ARCHIVE);
+    }
+
+    public List<MessageSummary> getMessagesPage(int offset, int limit) {
+        return getMessagesPage(null, offset, limit);
+    }
+
+    // threadKey narrows the list to one conversation; null lists every message.
+    public List<MessageSummary> getMessagesPage(String threadKey, int offset, int limit) {
+        String selection = threadKey == null ? null : threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + " = ?";
+        String[] args = threadKey == null ? null : new String[]{threadKey};
+        return queryMessageSummaries(selection, args, offset, limit);
+    }
+
+    public List<MessageSummary> getMessagesAfter(long date, long localId, int limit) {
+        return getMessagesAfter(null, date, localId, limit);
+    }
+
+    public List<MessageSummary> getMessagesAfter(String threadKey, long date, long localId, int limit) {
+        // The leading <= keeps the predicate a range on the date index, as in the timeline.
+        String selection = COLUMN_MESSAGE_DATE + " <= ? AND (" + COLUMN_MESSAGE_DATE + " < ? OR ("
+                + COLUMN_MESSAGE_DATE + " = ? AND " + COLUMN_MESSAGE_LOCAL_ID + " < ?))";
+        String dateArg = String.valueOf(date);
+        String[] args;
+        if (threadKey == null) {
+            args = new String[]{dateArg, dateArg, dateArg, String.valueOf(localId)};
+        } else {
+            selection = threadKeyExpression(COLUMN_MESSAGE_ADDRESS) + " = ? AND " + selection;
+            args = new String[]{threadKey, dateArg, dateArg, dateArg, String.valueOf(localId)};
+        }
+        return queryMessageSummaries(selection, args, 0, limit);
+    }
+
+    public List<ThreadSummary> getThreadsPage(ThreadSummary after, int limit) {
+        String selection = null;
+        String[] args = null;
+        if (after != null) {
+            selection = COLUMN_THREAD_LAST_DATE + " < ? OR (" + COLUMN_THREAD_LAST_DATE + " = ? AND "
+                    + COLUMN_THREAD_KEY + " < ?)";
+            String dateArg = String.valueOf(after.getLastDate());
+            args = new String[]{dateArg, dateArg, after.getThreadKey()};
+        }
+        Cursor cursor = getReadableDatabase().query(TABLE_THREADS, null, selection, args, null, null,
+                COLUMN_THREAD_LAST_DATE + " DESC, " + COLUMN_THREAD_KEY + " DESC", String.valueOf(limit));
+        List<ThreadSummary> threads = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            threads.add(new ThreadSummary(
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_THREAD_KEY)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_THREAD_ADDRESS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_THREAD_LAST_MESSAGE_ID)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_THREAD_LAST_PREVIEW)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_THREAD_LAST_DATE)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_THREAD_TOTAL_COUNT)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_THREAD_UNREAD_COUNT)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_THREAD_HAS_ATTACHMENTS)) == 1));
+        }
+        cursor.close();
+        return threads;
+    }
+
+    public int getThreadMessageCount(String threadKey) {
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT IFNULL((SELECT "
+                + COLUMN_THREAD_TOTAL_COUNT + " FROM " + TABLE_THREADS + " WHERE " + COLUMN_THREAD_KEY + " = ?), 0)",
+                new String[]{threadKey});
+    }
+
+    public void markThreadRead(String threadKey) {
+        getWritableDatabase().execSQL("UPDATE " + TABLE_THREADS + " SET " + COLUMN_THREAD_UNREAD_COUNT + " = 0, "
+                + COLUMN_THREAD_LAST_READ_DATE + " = " + COLUMN_THREAD_LAST_DATE + " WHERE " + COLUMN_THREAD_KEY + " = ?",
+                new Object[]{threadKey});
+    }
+
+    public List<VaultMessage> getMessagesByIds(Collection<Long> localIds) {
+        List<VaultMessage> messages = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(localIds);
+        for (int start = 0; start < ids.size(); start += MAX_SQL_VARIABLES) {
+            List<Long> chunk = ids.subList(start, Math.min(start + MAX_SQL_VARIABLES, ids.size()));
+            String selection = COLUMN_MESSAGE_LOCAL_ID + " IN (" + placeholders(chunk.size()) + ")";
+            String[] args = toArgs(chunk);
+            List<VaultMessage> found = queryMessages(TABLE_MESSAGES, selection, args);
+            if (found.size() < chunk.size()) {
+                found.addAll(queryMessages(TABLE_MESSAGES_ARCHIVE, selection, args));
+            }
+            messages.addAll(found);
+        }
+        return messages;
+    }
+
+    private String placeholders(int count) {
+        return TextUtils.join(",", Collections.nCopies(count, "?"));
+    }
+
+    private String[] toArgs(List<Long> ids) {
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            args[i] = String.valueOf(ids.get(i));
+        }
+        return args;
+    }
+
+    private List<VaultMessage> queryMessages(String table, String selection, String[] selectionArgs) {
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_MESSAGES, null, null, null, null, null,
-                COLUMN_MESSAGE_DATE + " DESC");
+        Cursor cursor = db.query(table, null, selection, selectionArgs, null, null,
+                COLUMN_MESSAGE_DATE + " DESC, " + COLUMN_MESSAGE_LOCAL_ID + " DESC");
         List<VaultMessage> messages = new ArrayList<>();
         if (cursor.moveToFirst()) {
             do {
@@ -360,43 +1803,61 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } while (cursor.moveToNext());
         }
         cursor.close();
-        db.close();
         return messages;
     }
 
-    public long insertAttachment(MessageAttachment attachment) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_ATTACHMENT_MESSAGE_ID, attachment.getMessageLocalId());
-        values.put(COLUMN_ATTACHMENT_PROVIDER_PART_ID, attachment.getProviderPartId());
-        values.put(COLUMN_ATTACHMENT_PATH, attachment.getFilePath());
-        values.put(COLUMN_ATTACHMENT_CONTENT_TYPE, attachment.getContentType());
-        values.put(COLUMN_ATTACHMENT_SIZE, attachment.getSizeBytes());
-        long id = db.insert(TABLE_ATTACHMENTS, null, values);
-        db.close();
-        return id;
-    }
-
-    private boolean existingMessageHasAttachments(SQLiteDatabase db, long localId) {
-        Cursor cursor = db.query(TABLE_MESSAGES, new String[]{COLUMN_MESSAGE_HAS_ATTACHMENTS},
-                COLUMN_MESSAGE_LOCAL_ID + "=?", new String[]{String.valueOf(localId)}, null, null, null);
-        boolean hasAttachments = false;
+    // Archived rows are usually the oldest but not always (a late sync can bring in an old message, the
+    // archiver can be reconfigured), so both tables are merged on (date, localId). Written as a bare compound,
+    // SQLite walks both date indexes in order and merges them lazily, stopping after offset + limit rows.
+    private List<MessageSummary> queryMessageSummaries(String selection, String[] selectionArgs, int offset, int limit) {
+        String where = selection == null ? "" : " WHERE " + selection;
+        String sql = "SELECT " + TextUtils.join(", ", messageSummaryColumns("", previewExpression(COLUMN_MESSAGE_BODY)))
+                + " FROM " + TABLE_MESSAGES + where
+                + " UNION ALL SELECT " + TextUtils.join(", ", messageSummaryColumns("", COLUMN_PREVIEW))
+                + " FROM " + TABLE_MESSAGES_ARCHIVE + where
+                + " ORDER BY " + COLUMN_MESSAGE_DATE + " DESC, " + COLUMN_MESSAGE_LOCAL_ID + " DESC"
+                + " LIMIT " + limit + " OFFSET " + offset;
+        String[] args = null;
+        if (selectionArgs != null) {
+            args = new String[selectionArgs.length * 2];
+            System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+            System.arraycopy(selectionArgs, 0, args, selectionArgs.length, selectionArgs.length);
+        }
+        Cursor cursor = getReadableDatabase().rawQuery(sql, args);
+        List<MessageSummary> messages = new ArrayList<>();
         if (cursor.moveToFirst()) {
-            hasAttachments = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_HAS_ATTACHMENTS)) == 1;
+            do {
+                messages.add(readMessageSummaryFromCursor(cursor));
+            } while (cursor.moveToNext());
         }
         cursor.close();
-        return hasAttachments;
+        return messages;
+    }
+
+    public long insertAttachment(MessageAttachment attachment) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (insertAttachmentStatement) {
+            SQLiteStatement statement = insertAttachmentStatement.get(db);
+            statement.clearBindings();
+            statement.bindLong(1, attachment.getMessageLocalId());
+            bindNullableString(statement, 2, attachment.getProviderPartId());
+            bindNullableString(statement, 3, attachment.getFilePath());
+            bindNullableString(statement, 4, attachment.getContentType());
+            statement.bindLong(5, attachment.getSizeBytes());
+            return statement.executeInsert();
+        }
     }
 
     public boolean attachmentExists(long messageLocalId, String providerPartId) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_ATTACHMENTS, new String[]{COLUMN_ATTACHMENT_ID},
-                COLUMN_ATTACHMENT_MESSAGE_ID + "=? AND " + COLUMN_ATTACHMENT_PROVIDER_PART_ID + "=?",
-                new String[]{String.valueOf(messageLocalId), providerPartId}, null, null, null);
-        boolean exists = cursor.moveToFirst();
-        cursor.close();
-        db.close();
-        return exists;
+        // Compiled against the writable handle so every cached statement shares one database object.
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (attachmentExistsStatement) {
+            SQLiteStatement statement = attachmentExistsStatement.get(db);
+            statement.clearBindings();
+            statement.bindLong(1, messageLocalId);
+            bindNullableString(statement, 2, providerPartId);
+            return statement.simpleQueryForLong() == 1;
+        }
     }
 
     public List<MessageAttachment> getAttachmentsForMessage(long messageLocalId) {
@@ -411,20 +1872,62 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } while (cursor.moveToNext());
         }
         cursor.close();
-        db.close();
         return attachments;
     }
 
-    private long getExistingMessageId(SQLiteDatabase db, long providerId, String providerType) {
-        Cursor cursor = db.query(TABLE_MESSAGES, new String[]{COLUMN_MESSAGE_LOCAL_ID},
-                COLUMN_MESSAGE_PROVIDER_ID + "=? AND " + COLUMN_MESSAGE_PROVIDER_TYPE + "=?",
-                new String[]{String.valueOf(providerId), providerType}, null, null, null);
-        long id = -1;
-        if (cursor.moveToFirst()) {
-            id = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_LOCAL_ID));
+    public AttachmentPartIndex loadAttachmentPartIndex() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        AttachmentPartIndex index = new AttachmentPartIndex((int) DatabaseUtils.queryNumEntries(db, TABLE_ATTACHMENTS));
+        Cursor cursor = db.query(TABLE_ATTACHMENTS,
+                new String[]{COLUMN_ATTACHMENT_MESSAGE_ID, COLUMN_ATTACHMENT_PROVIDER_PART_ID},
+                null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            index.add(cursor.getLong(0), cursor.getString(1));
         }
         cursor.close();
-        return id;
+        return index;
+    }
+
+    public Map<Long, List<MessageAttachment>> getAttachmentsForMessages(Collection<Long> messageLocalIds) {
+        Map<Long, List<MessageAttachment>> attachmentsByMessage = new HashMap<>();
+        List<Long> ids = new ArrayList<>(messageLocalIds);
+        SQLiteDatabase db = this.getReadableDatabase();
+        for (int start = 0; start < ids.size(); start += MAX_SQL_VARIABLES) {
+            List<Long> chunk = ids.subList(start, Math.min(start + MAX_SQL_VARIABLES, ids.size()));
+            Cursor cursor = db.query(TABLE_ATTACHMENTS, null,
+                    COLUMN_ATTACHMENT_MESSAGE_ID + " IN (" + placeholders(chunk.size()) + ")",
+                    toArgs(chunk), null, null, COLUMN_ATTACHMENT_ID);
+            while (cursor.moveToNext()) {
+                MessageAttachment attachment = readAttachmentFromCursor(cursor);
+                List<MessageAttachment> attachments = attachmentsByMessage.get(attachment.getMessageLocalId());
+                if (attachments == null) {
+                    attachments = new ArrayList<>();
+                    attachmentsByMessage.put(attachment.getMessageLocalId(), attachments);
+                }
+                attachments.add(attachment);
+            }
+            cursor.close();
+        }
+        return attachmentsByMessage;
+    }
+
+    private long getExistingMessageId(SQLiteDatabase db, long providerId, String providerType) {
+        return queryMessageId(db, selectMessageIdStatement, providerId, providerType);
+    }
+
+    private long queryMessageId(SQLiteDatabase db, CachedStatement cachedStatement, long providerId,
+                                String providerType) {
+        synchronized (cachedStatement) {
+            SQLiteStatement statement = cachedStatement.get(db);
+            statement.clearBindings();
+            statement.bindLong(1, providerId);
+            bindNullableString(statement, 2, providerType);
+            try {
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
     }
 
     private VaultMessage readMessageFromCursor(Cursor cursor) {
@@ -434,11 +1937,25 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         String address = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_ADDRESS));
         long date = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_DATE));
         String body = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_BODY));
+        int deflatedIndex = cursor.getColumnIndex(COLUMN_ARCHIVE_BODY_DEFLATED);
+        if (body == null && deflatedIndex != -1 && !cursor.isNull(deflatedIndex)) {
+            body = CompressionUtils.inflate(cursor.getBlob(deflatedIndex));
+        }
         int boxType = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_BOX_TYPE));
         boolean hasAttachments = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_HAS_ATTACHMENTS)) == 1;
         return new VaultMessage(localId, providerId, providerType, address, date, body, boxType, hasAttachments);
     }
 
+    private MessageSummary readMessageSummaryFromCursor(Cursor cursor) {
+        long localId = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_LOCAL_ID));
+        String providerType = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_PROVIDER_TYPE));
+        String address = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_ADDRESS));
+        long date = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_DATE));
+        String preview = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PREVIEW));
+        boolean hasAttachments = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_HAS_ATTACHMENTS)) == 1;
+        return new MessageSummary(localId, providerType, address, date, preview, hasAttachments);
+    }
+
     private MessageAttachment readAttachmentFromCursor(Cursor cursor) {
         long attachmentId = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_ID));
         long messageId = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_MESSAGE_ID));
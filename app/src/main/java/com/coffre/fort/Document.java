@@ -9,6 +9,7 @@ public class Document {
     private String attachmentUri;
     private String attachmentMimeType;
     private String attachmentName;
+    private String contentFile;
 
     public Document() {
         this.timestamp = System.currentTimeMillis();
@@ -90,6 +91,18 @@ public class Document {
         this.attachmentName = attachmentName;
     }
 
+    public String getContentFile() {
+        return contentFile;
+    }
+
+    public void setContentFile(String contentFile) {
+        this.contentFile = contentFile;
+    }
+
+    public boolean hasExternalContent() {
+        return contentFile != null && !contentFile.isEmpty();
+    }
+
     public boolean hasAttachment() {
         return attachmentUri != null && !attachmentUri.isEmpty();
     }
@@ -1,6 +1,7 @@
 package com.coffre.fort;
 
 import android.content.Context;
+import android.graphics.Color;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,28 +13,49 @@ import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.text.DateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
-public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.DocumentViewHolder> {
+public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.DocumentViewHolder>
+        implements DocumentPagingSource.Listener {
 
-    private List<Document> documents;
+    private final DocumentPagingSource pagingSource;
     private OnDocumentClickListener listener;
+    private CountChangeListener countChangeListener;
     private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
 
     public interface OnDocumentClickListener {
-        void onDocumentClick(Document document);
+        void onDocumentClick(DocumentSummary document);
     }
 
-    public DocumentAdapter(OnDocumentClickListener listener) {
-        this.documents = new ArrayList<>();
+    public interface CountChangeListener {
+        void onCountChanged(int count);
+    }
+
+    public DocumentAdapter(DocumentPagingSource pagingSource, OnDocumentClickListener listener) {
+        this.pagingSource = pagingSource;
         this.listener = listener;
+        pagingSource.setListener(this);
+    }
+
+    public void setCountChangeListener(CountChangeListener countChangeListener) {
+        this.countChangeListener = countChangeListener;
     }
 
-    public void setDocuments(List<Document> documents) {
-        this.documents = documents;
+    public void reload() {
+        pagingSource.refresh();
+    }
+
+    @Override
+    public void onCountChanged(int count) {
         notifyDataSetChanged();
+        if (countChangeListener != null) {
+            countChangeListener.onCountChanged(count);
+        }
+    }
+
+    @Override
+    public void onPageLoaded(int startPosition, int itemCount) {
+        notifyItemRangeChanged(startPosition, itemCount);
     }
 
     @NonNull
@@ -46,13 +68,17 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
 
     @Override
     public void onBindViewHolder(@NonNull DocumentViewHolder holder, int position) {
-        Document document = documents.get(position);
+        DocumentSummary document = pagingSource.getItem(position);
+        if (document == null) {
+            holder.bindPlaceholder();
+            return;
+        }
         holder.bind(document);
     }
 
     @Override
     public int getItemCount() {
-        return documents.size();
+        return pagingSource.getCount();
     }
 
     class DocumentViewHolder extends RecyclerView.ViewHolder {
@@ -72,13 +98,25 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
 
             itemView.setOnClickListener(v -> {
                 int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onDocumentClick(documents.get(position));
+                if (position == RecyclerView.NO_POSITION || listener == null) {
+                    return;
+                }
+                DocumentSummary document = pagingSource.getItem(position);
+                if (document != null) {
+                    listener.onDocumentClick(document);
                 }
             });
         }
 
-        public void bind(Document document) {
+        void bindPlaceholder() {
+            titleTextView.setText(null);
+            categoryTextView.setText(null);
+            timestampTextView.setText(null);
+            contentTextView.setText(null);
+            categoryIndicatorView.setBackgroundColor(Color.TRANSPARENT);
+        }
+
+        public void bind(DocumentSummary document) {
             Context context = itemView.getContext();
             titleTextView.setText(document.getTitle());
 
@@ -99,8 +137,8 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
                     attachmentName = context.getString(R.string.unknown_file);
                 }
                 contentTextView.setText(context.getString(R.string.attachment_summary_short, attachmentName));
-            } else if (!TextUtils.isEmpty(document.getContent())) {
-                contentTextView.setText(document.getContent());
+            } else if (!TextUtils.isEmpty(document.getPreview())) {
+                contentTextView.setText(SearchUtils.highlight(document.getPreview()));
             } else {
                 contentTextView.setText(R.string.no_preview_available);
             }
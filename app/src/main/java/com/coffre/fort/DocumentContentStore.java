@@ -0,0 +1,80 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+public class DocumentContentStore {
+
+    private static final String TAG = "DocumentContentStore";
+    private static final String DIRECTORY = "document_content";
+
+    private final File directory;
+
+    public DocumentContentStore(Context context) {
+        this.directory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    public String write(String content) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File file = new File(directory, UUID.randomUUID().toString() + ".txt");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e;
+        }
+        return file.getName();
+    }
+
+    public Reader openReader(String name) throws IOException {
+        return new InputStreamReader(new FileInputStream(new File(directory, name)), StandardCharsets.UTF_8);
+    }
+
+    public String read(String name) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8 * 1024];
+        try (Reader reader = openReader(name)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+        }
+        return builder.toString();
+    }
+
+    public void delete(String name) {
+        if (name == null) {
+            return;
+        }
+        File file = new File(directory, name);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete " + file);
+        }
+    }
+
+    public void deleteAll() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+}
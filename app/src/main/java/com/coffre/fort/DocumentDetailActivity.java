@@ -43,7 +43,8 @@ public class DocumentDetailActivity extends AppCompatActivity {
     private Button emailButton;
     private Button deleteButton;
 
-    private DatabaseHelper databaseHelper;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
     private int documentId;
     private MediaPlayer mediaPlayer;
     private Uri attachmentUri;
@@ -57,7 +58,7 @@ public class DocumentDetailActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_document_detail);
 
-        databaseHelper = new DatabaseHelper(this);
+        repository = VaultRepository.getInstance(this);
 
         titleTextView = findViewById(R.id.titleTextView);
         categoryTextView = findViewById(R.id.categoryTextView);
@@ -101,14 +102,16 @@ public class DocumentDetailActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        scope.cancel();
         releaseMediaPlayer();
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
     }
 
     private void loadDocument() {
-        currentDocument = databaseHelper.getDocument(documentId);
+        repository.getDocument(scope, documentId, this::showDocument);
+    }
+
+    private void showDocument(Document document) {
+        currentDocument = document;
         if (currentDocument == null) {
             return;
         }
@@ -127,6 +130,9 @@ public class DocumentDetailActivity extends AppCompatActivity {
             contentTextView.setVisibility(View.VISIBLE);
             contentTextView.setText(currentDocument.getContent());
         }
+        if (currentDocument.hasExternalContent()) {
+            loadExternalContent(currentDocument);
+        }
 
         if (currentDocument.hasAttachment()) {
             populateAttachmentViews(currentDocument);
@@ -138,6 +144,30 @@ public class DocumentDetailActivity extends AppCompatActivity {
         }
     }
 
+    private void loadExternalContent(Document document) {
+        // The row only holds a preview; replace it with the full text as it streams in.
+        StringBuilder fullContent = new StringBuilder();
+        repository.streamDocumentContent(scope, document, new VaultRepository.ContentListener() {
+            @Override
+            public void onChunk(String chunk) {
+                if (fullContent.length() == 0) {
+                    contentTextView.setText("");
+                }
+                fullContent.append(chunk);
+                contentTextView.append(chunk);
+            }
+
+            @Override
+            public void onComplete(boolean success) {
+                if (success) {
+                    document.setContent(fullContent.toString());
+                } else if (fullContent.length() == 0) {
+                    Toast.makeText(DocumentDetailActivity.this, R.string.document_content_error, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
     private void populateAttachmentViews(Document document) {
         attachmentUri = Uri.parse(document.getAttachmentUri());
         attachmentMimeType = document.getAttachmentMimeType();
@@ -336,14 +366,15 @@ public class DocumentDetailActivity extends AppCompatActivity {
             return;
         }
         String normalizedCategory = CategoryUtils.normalizeCategory(this, newCategory);
-        boolean updated = databaseHelper.updateDocumentCategory(currentDocument.getId(), normalizedCategory);
-        if (updated) {
-            currentDocument.setCategory(normalizedCategory);
-            categoryTextView.setText(normalizedCategory);
-            Toast.makeText(this, R.string.change_category_success, Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.change_category_error, Toast.LENGTH_SHORT).show();
-        }
+        repository.updateDocumentCategory(scope, currentDocument.getId(), normalizedCategory, updated -> {
+            if (updated) {
+                currentDocument.setCategory(normalizedCategory);
+                categoryTextView.setText(normalizedCategory);
+                Toast.makeText(this, R.string.change_category_success, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, R.string.change_category_error, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     private void sendDocumentByEmail() {
@@ -378,11 +409,10 @@ public class DocumentDetailActivity extends AppCompatActivity {
     private void confirmDelete() {
         new AlertDialog.Builder(this)
             .setMessage(R.string.confirm_delete)
-            .setPositiveButton(R.string.yes, (dialog, which) -> {
-                databaseHelper.deleteDocument(documentId);
+            .setPositiveButton(R.string.yes, (dialog, which) -> repository.deleteDocument(scope, documentId, result -> {
                 Toast.makeText(this, R.string.document_deleted, Toast.LENGTH_SHORT).show();
                 finish();
-            })
+            }))
             .setNegativeButton(R.string.no, null)
             .show();
     }
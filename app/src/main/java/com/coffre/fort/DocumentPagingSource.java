@@ -0,0 +1,263 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The home list, paged like MessagePagingSource: the count comes first, rows are fetched a page at a time as
+// they are bound, and only the last few pages stay in memory however far the list is scrolled.
+public class DocumentPagingSource {
+
+    public interface Listener {
+        void onCountChanged(int count);
+
+        void onPageLoaded(int startPosition, int itemCount);
+    }
+
+    public static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES_IN_MEMORY = 5;
+
+    private final Context context;
+    private final DatabaseHelper databaseHelper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<Integer, List<DocumentSummary>> pages =
+            new LinkedHashMap<Integer, List<DocumentSummary>>(MAX_PAGES_IN_MEMORY + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<DocumentSummary>> eldest) {
+                    return size() > MAX_PAGES_IN_MEMORY;
+                }
+            };
+    // Last row of each page seen so far, so the following page can be read by keyset.
+    private final Map<Integer, DocumentSummary> pageEnds = new HashMap<>();
+    private final Set<Integer> pendingPages = new HashSet<>();
+
+    private Listener listener;
+    private String query;
+    private String category;
+    private int count;
+    // Document hits come first in an unfiltered search; message hits start after them.
+    private int documentHitCount;
+    private int generation;
+
+    public DocumentPagingSource(Context context, DatabaseHelper databaseHelper) {
+        this.context = context.getApplicationContext();
+        this.databaseHelper = databaseHelper;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setQuery(String query) {
+        this.query = SearchUtils.toMatchExpression(query) == null ? null : query;
+    }
+
+    // null lists every category: the merged timeline of documents and messages.
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public DocumentSummary getItem(int position) {
+        int pageIndex = position / PAGE_SIZE;
+        List<DocumentSummary> page = pages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex);
+            return null;
+        }
+        int offset = position % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    public void refresh() {
+        final int requestGeneration = ++generation;
+        pages.clear();
+        pageEnds.clear();
+        pendingPages.clear();
+        final String searchQuery = query;
+        final String selectedCategory = category;
+        executor.execute(() -> {
+            int documentHits = isMergedSearch(searchQuery, selectedCategory)
+                    ? databaseHelper.countDocumentSearchHits(searchQuery, null) : 0;
+            int newCount = isMergedSearch(searchQuery, selectedCategory)
+                    ? documentHits + databaseHelper.countMessageSearchHits(searchQuery)
+                    : countItems(searchQuery, selectedCategory);
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                documentHitCount = documentHits;
+                count = newCount;
+                if (listener != null) {
+                    listener.onCountChanged(newCount);
+                }
+            });
+        });
+    }
+
+    public void close() {
+        generation++;
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void requestPage(int pageIndex) {
+        if (!pendingPages.add(pageIndex)) {
+            return;
+        }
+        final int requestGeneration = generation;
+        final String searchQuery = query;
+        final String selectedCategory = category;
+        final DocumentSummary previousEnd = pageEnds.get(pageIndex - 1);
+        final int documentHits = documentHitCount;
+        executor.execute(() -> {
+            List<DocumentSummary> page = isMergedSearch(searchQuery, selectedCategory)
+                    ? loadMergedSearchPage(searchQuery, pageIndex, documentHits)
+                    : loadPage(searchQuery, selectedCategory, pageIndex, previousEnd);
+            mainHandler.post(() -> onPageLoaded(requestGeneration, pageIndex, page));
+        });
+    }
+
+    private int countItems(String searchQuery, String selectedCategory) {
+        if (isMessageCategory(selectedCategory)) {
+            return searchQuery != null
+                    ? databaseHelper.countMessageSearchHits(searchQuery)
+                    : databaseHelper.getMessageCount();
+        }
+        if (searchQuery != null) {
+            return databaseHelper.countDocumentSearchHits(searchQuery, categoryFilter(selectedCategory));
+        }
+        return selectedCategory == null
+                ? databaseHelper.getTimelineCount()
+                : databaseHelper.getCategoryDocumentCount(selectedCategory);
+    }
+
+    // Search hits are ordered by relevance, which has no stable keyset, so they are always read by offset.
+    // Other lists continue from the previous page's last row when it is still known.
+    private List<DocumentSummary> loadPage(String searchQuery, String selectedCategory, int pageIndex,
+                                           DocumentSummary previousEnd) {
+        int offset = pageIndex * PAGE_SIZE;
+        if (isMessageCategory(selectedCategory)) {
+            List<MessageSummary> messages;
+            if (searchQuery != null) {
+                messages = databaseHelper.searchMessages(searchQuery, offset, PAGE_SIZE);
+            } else if (previousEnd != null) {
+                messages = databaseHelper.getMessagesAfter(previousEnd.getTimestamp(),
+                        previousEnd.getMessageLocalId(), PAGE_SIZE);
+            } else {
+                messages = databaseHelper.getMessagesPage(offset, PAGE_SIZE);
+            }
+            return toDocumentSummaries(messages);
+        }
+        if (searchQuery != null) {
+            return databaseHelper.searchDocuments(searchQuery, categoryFilter(selectedCategory), offset, PAGE_SIZE);
+        }
+        if (selectedCategory != null) {
+            return previousEnd != null
+                    ? databaseHelper.getDocumentsPage(categoryFilter(selectedCategory), previousEnd, PAGE_SIZE)
+                    : databaseHelper.getDocumentsPage(categoryFilter(selectedCategory), offset, PAGE_SIZE);
+        }
+        List<TimelineEntry> entries;
+        if (previousEnd == null) {
+            entries = databaseHelper.getTimelinePage(offset, PAGE_SIZE);
+        } else if (previousEnd.isMessage()) {
+            entries = databaseHelper.getTimelineAfter(previousEnd.getTimestamp(), TimelineEntry.KIND_MESSAGE,
+                    previousEnd.getMessageLocalId(), PAGE_SIZE);
+        } else {
+            entries = databaseHelper.getTimelineAfter(previousEnd.getTimestamp(), TimelineEntry.KIND_DOCUMENT,
+                    previousEnd.getId(), PAGE_SIZE);
+        }
+        List<DocumentSummary> documents = new ArrayList<>(entries.size());
+        for (TimelineEntry entry : entries) {
+            documents.add(entry.getDocument() != null ? entry.getDocument() : toDocumentSummary(entry.getMessage()));
+        }
+        return documents;
+    }
+
+    // Searching every category covers messages too: the document hits, by relevance, then the message hits.
+    private List<DocumentSummary> loadMergedSearchPage(String searchQuery, int pageIndex, int documentHits) {
+        int offset = pageIndex * PAGE_SIZE;
+        List<DocumentSummary> page = new ArrayList<>(PAGE_SIZE);
+        if (offset < documentHits) {
+            page.addAll(databaseHelper.searchDocuments(searchQuery, null, offset, PAGE_SIZE));
+        }
+        if (page.size() < PAGE_SIZE) {
+            int messageOffset = Math.max(0, offset - documentHits);
+            page.addAll(toDocumentSummaries(databaseHelper.searchMessages(searchQuery, messageOffset,
+                    PAGE_SIZE - page.size())));
+        }
+        return page;
+    }
+
+    private void onPageLoaded(int requestGeneration, int pageIndex, List<DocumentSummary> page) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        pendingPages.remove(pageIndex);
+        pages.put(pageIndex, page);
+        if (!page.isEmpty()) {
+            pageEnds.put(pageIndex, page.get(page.size() - 1));
+        }
+        int startPosition = pageIndex * PAGE_SIZE;
+        int itemCount = Math.min(PAGE_SIZE, count - startPosition);
+        if (page.size() < itemCount) {
+            // Rows went away since the count was taken: the list ends where the data does, instead of
+            // keeping placeholders that no page will ever fill.
+            count = startPosition + page.size();
+            if (listener != null) {
+                listener.onCountChanged(count);
+            }
+            return;
+        }
+        if (listener != null && itemCount > 0) {
+            listener.onPageLoaded(startPosition, itemCount);
+        }
+    }
+
+    private static boolean isMergedSearch(String searchQuery, String selectedCategory) {
+        return searchQuery != null && selectedCategory == null;
+    }
+
+    private boolean isMessageCategory(String selectedCategory) {
+        return selectedCategory != null && CategoryUtils.isMessageCategory(context, selectedCategory);
+    }
+
+    private static List<String> categoryFilter(String selectedCategory) {
+        return selectedCategory == null ? null : Collections.singletonList(selectedCategory);
+    }
+
+    private List<DocumentSummary> toDocumentSummaries(List<MessageSummary> messages) {
+        List<DocumentSummary> documents = new ArrayList<>(messages.size());
+        for (MessageSummary message : messages) {
+            documents.add(toDocumentSummary(message));
+        }
+        return documents;
+    }
+
+    // Messages are shown as document rows in the home list.
+    private DocumentSummary toDocumentSummary(MessageSummary message) {
+        String sender = TextUtils.isEmpty(message.getAddress())
+                ? context.getString(R.string.sms_document_title_unknown)
+                : message.getAddress();
+        return new DocumentSummary(-1, context.getString(R.string.message_document_title, sender),
+                context.getString(R.string.category_messages), message.getDate(), null, false, message.getPreview(),
+                message.getLocalId());
+    }
+}
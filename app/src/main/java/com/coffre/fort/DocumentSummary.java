@@ -0,0 +1,66 @@
+package com.coffre.fort;
+
+public class DocumentSummary {
+    private final int id;
+    private final String title;
+    private final String category;
+    private final long timestamp;
+    private final String attachmentName;
+    private final boolean hasAttachment;
+    private final String preview;
+    // Set for rows that come from the messages table; id is then unused.
+    private final long messageLocalId;
+
+    public DocumentSummary(int id, String title, String category, long timestamp,
+                           String attachmentName, boolean hasAttachment, String preview) {
+        this(id, title, category, timestamp, attachmentName, hasAttachment, preview, -1L);
+    }
+
+    public DocumentSummary(int id, String title, String category, long timestamp,
+                           String attachmentName, boolean hasAttachment, String preview, long messageLocalId) {
+        this.id = id;
+        this.title = title;
+        this.category = category;
+        this.timestamp = timestamp;
+        this.attachmentName = attachmentName;
+        this.hasAttachment = hasAttachment;
+        this.preview = preview;
+        this.messageLocalId = messageLocalId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getAttachmentName() {
+        return attachmentName;
+    }
+
+    public boolean hasAttachment() {
+        return hasAttachment;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public long getMessageLocalId() {
+        return messageLocalId;
+    }
+
+    public boolean isMessage() {
+        return messageLocalId != -1L;
+    }
+}
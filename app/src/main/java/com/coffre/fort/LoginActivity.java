@@ -14,33 +14,46 @@ public class LoginActivity extends AppCompatActivity {
     private EditText passwordEditText;
     private Button loginButton;
     private Button createPasswordButton;
-    private DatabaseHelper databaseHelper;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
+    private boolean hasPassword;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_login);
 
-        databaseHelper = new DatabaseHelper(this);
+        repository = VaultRepository.getInstance(this);
 
         passwordEditText = findViewById(R.id.passwordEditText);
         loginButton = findViewById(R.id.loginButton);
         createPasswordButton = findViewById(R.id.createPasswordButton);
 
+        loginButton.setEnabled(false);
+        createPasswordButton.setEnabled(false);
+        scope.setFailureListener(this::showButtons);
         updateUI();
 
         loginButton.setOnClickListener(v -> login());
         createPasswordButton.setOnClickListener(v -> createPassword());
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        scope.cancel();
+    }
+
     private void updateUI() {
-        if (databaseHelper.hasPassword()) {
-            loginButton.setEnabled(true);
-            createPasswordButton.setEnabled(false);
-        } else {
-            loginButton.setEnabled(false);
-            createPasswordButton.setEnabled(true);
-        }
+        repository.hasPassword(scope, result -> {
+            hasPassword = result;
+            showButtons();
+        });
+    }
+
+    private void showButtons() {
+        loginButton.setEnabled(hasPassword);
+        createPasswordButton.setEnabled(!hasPassword);
     }
 
     private void login() {
@@ -51,14 +64,18 @@ public class LoginActivity extends AppCompatActivity {
             return;
         }
 
-        if (databaseHelper.verifyPassword(enteredPassword)) {
-            Intent intent = new Intent(this, MainActivity.class);
-            startActivity(intent);
-            finish();
-        } else {
-            Toast.makeText(this, R.string.invalid_password, Toast.LENGTH_SHORT).show();
-            passwordEditText.setText("");
-        }
+        loginButton.setEnabled(false);
+        repository.verifyPassword(scope, enteredPassword, valid -> {
+            loginButton.setEnabled(true);
+            if (valid) {
+                Intent intent = new Intent(this, MainActivity.class);
+                startActivity(intent);
+                finish();
+            } else {
+                Toast.makeText(this, R.string.invalid_password, Toast.LENGTH_SHORT).show();
+                passwordEditText.setText("");
+            }
+        });
     }
 
     private void createPassword() {
@@ -69,8 +86,10 @@ public class LoginActivity extends AppCompatActivity {
             return;
         }
 
-        databaseHelper.setPassword(newPassword);
-        Toast.makeText(this, R.string.password_created, Toast.LENGTH_SHORT).show();
-        updateUI();
+        createPasswordButton.setEnabled(false);
+        repository.setPassword(scope, newPassword, result -> {
+            Toast.makeText(this, R.string.password_created, Toast.LENGTH_SHORT).show();
+            updateUI();
+        });
     }
 }
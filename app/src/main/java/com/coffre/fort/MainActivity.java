@@ -8,11 +8,16 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
 
@@ -28,11 +33,14 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class MainActivity extends AppCompatActivity implements DocumentAdapter.OnDocumentClickListener {
 
     private static final int REQUEST_SMS_PERMISSION = 1001;
+    private static final long SEARCH_DEBOUNCE_MS = 200L;
     private static final String[] MESSAGE_PERMISSIONS = new String[]{
             Manifest.permission.RECEIVE_SMS,
             Manifest.permission.RECEIVE_MMS,
@@ -44,21 +52,29 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
     private RecyclerView documentsRecyclerView;
     private TextView emptyTextView;
     private Spinner categorySpinner;
+    private EditText searchEditText;
     private FloatingActionButton addDocumentFab;
 
-    private DatabaseHelper databaseHelper;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
+    private DocumentPagingSource pagingSource;
     private DocumentAdapter documentAdapter;
     private String[] categories;
+    private final List<String> categoryLabels = new ArrayList<>();
+    private ArrayAdapter<String> spinnerAdapter;
     private String selectedCategory;
     private EmailConfigManager emailConfigManager;
     private BroadcastReceiver smsSavedReceiver;
+    private String searchQuery;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::loadDocuments;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        databaseHelper = new DatabaseHelper(this);
+        repository = VaultRepository.getInstance(this);
         emailConfigManager = new EmailConfigManager(this);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -67,6 +83,7 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
         documentsRecyclerView = findViewById(R.id.documentsRecyclerView);
         emptyTextView = findViewById(R.id.emptyTextView);
         categorySpinner = findViewById(R.id.categorySpinner);
+        searchEditText = findViewById(R.id.searchEditText);
         addDocumentFab = findViewById(R.id.addDocumentFab);
 
         String[] baseCategories = getResources().getStringArray(R.array.document_categories);
@@ -74,8 +91,9 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
         categories[0] = getString(R.string.all_categories);
         System.arraycopy(baseCategories, 0, categories, 1, baseCategories.length);
 
-        ArrayAdapter<String> spinnerAdapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item, categories);
+        categoryLabels.addAll(Arrays.asList(categories));
+        spinnerAdapter = new ArrayAdapter<>(this,
+                android.R.layout.simple_spinner_item, categoryLabels);
         spinnerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         categorySpinner.setAdapter(spinnerAdapter);
 
@@ -91,7 +109,27 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
             }
         });
 
-        documentAdapter = new DocumentAdapter(this);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String query = s.toString().trim();
+                searchQuery = SearchUtils.toMatchExpression(query) == null ? null : query;
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
+
+        pagingSource = new DocumentPagingSource(this, DatabaseHelper.getInstance(this));
+        documentAdapter = new DocumentAdapter(pagingSource, this);
+        documentAdapter.setCountChangeListener(this::updateEmptyState);
         documentsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         documentsRecyclerView.setAdapter(documentAdapter);
 
@@ -129,6 +167,16 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
         unregisterReceiver(smsSavedReceiver);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        scope.cancel();
+        searchHandler.removeCallbacks(searchRunnable);
+        if (pagingSource != null) {
+            pagingSource.close();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
@@ -141,6 +189,10 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
             Intent intent = new Intent(this, MessageListActivity.class);
             startActivity(intent);
             return true;
+        } else if (item.getItemId() == R.id.action_conversations) {
+            Intent intent = new Intent(this, ConversationListActivity.class);
+            startActivity(intent);
+            return true;
         } else if (item.getItemId() == R.id.action_settings) {
             Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
@@ -150,29 +202,55 @@ public class MainActivity extends AppCompatActivity implements DocumentAdapter.O
     }
 
     private void loadDocuments() {
-        List<Document> documents;
-        if (selectedCategory == null) {
-            documents = databaseHelper.getAllDocuments();
-        } else if (CategoryUtils.isMessageCategory(this, selectedCategory)) {
-            documents = databaseHelper.getDocumentsByCategories(
-                    CategoryUtils.getMessageCategoriesForQuery(this));
-        } else {
-            documents = databaseHelper.getDocumentsByCategory(selectedCategory);
-        }
+        searchHandler.removeCallbacks(searchRunnable);
+        repository.getCategoryStats(scope, this::showCategoryBadges);
+        pagingSource.setCategory(selectedCategory);
+        pagingSource.setQuery(searchQuery);
+        documentAdapter.reload();
+    }
 
-        documentAdapter.setDocuments(documents);
+    private void updateEmptyState(int count) {
+        boolean hasDocuments = count > 0;
+        emptyTextView.setVisibility(hasDocuments ? View.GONE : View.VISIBLE);
+        documentsRecyclerView.setVisibility(hasDocuments ? View.VISIBLE : View.GONE);
+    }
 
-        if (documents.isEmpty()) {
-            emptyTextView.setVisibility(View.VISIBLE);
-            documentsRecyclerView.setVisibility(View.GONE);
-        } else {
-            emptyTextView.setVisibility(View.GONE);
-            documentsRecyclerView.setVisibility(View.VISIBLE);
+    private void showCategoryBadges(Map<String, CategoryStats> stats) {
+        // The timeline under "All categories" includes messages, so their row counts too.
+        int total = 0;
+        for (CategoryStats entry : stats.values()) {
+            total += entry.getItemCount();
+        }
+        categoryLabels.set(0, getString(R.string.category_with_count, categories[0], total));
+        for (int i = 1; i < categories.length; i++) {
+            // Messages are counted from the messages table, plus any copies the migration has not reached yet.
+            List<String> keys = new ArrayList<>();
+            if (CategoryUtils.isMessageCategory(this, categories[i])) {
+                keys.add(DatabaseHelper.STATS_KEY_MESSAGES);
+                keys.addAll(CategoryUtils.getMessageCategoriesForQuery(this));
+            } else {
+                keys.add(categories[i]);
+            }
+            int count = 0;
+            for (String key : keys) {
+                CategoryStats entry = stats.get(key);
+                if (entry != null) {
+                    count += entry.getItemCount();
+                }
+            }
+            categoryLabels.set(i, getString(R.string.category_with_count, categories[i], count));
         }
+        spinnerAdapter.notifyDataSetChanged();
     }
 
     @Override
-    public void onDocumentClick(Document document) {
+    public void onDocumentClick(DocumentSummary document) {
+        if (document.isMessage()) {
+            Intent intent = new Intent(this, MessageDetailActivity.class);
+            intent.putExtra("message_id", document.getMessageLocalId());
+            startActivity(intent);
+            return;
+        }
         Intent intent = new Intent(this, DocumentDetailActivity.class);
         intent.putExtra("document_id", document.getId());
         startActivity(intent);
@@ -11,51 +11,72 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
-public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
+public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder>
+        implements MessagePagingSource.Listener {
 
     public interface OnMessageClickListener {
-        void onMessageClick(VaultMessage message);
+        void onMessageClick(MessageSummary message);
     }
 
     public interface SelectionChangeListener {
         void onSelectionChanged(int selectedCount);
     }
 
+    public interface CountChangeListener {
+        void onCountChanged(int count);
+    }
+
     private final Context context;
     private final OnMessageClickListener listener;
-    private List<VaultMessage> messages = new ArrayList<>();
+    private final MessagePagingSource pagingSource;
     private final Set<Long> selectedMessageIds = new HashSet<>();
     private SelectionChangeListener selectionChangeListener;
+    private CountChangeListener countChangeListener;
 
-    public MessageAdapter(Context context, OnMessageClickListener listener) {
+    public MessageAdapter(Context context, MessagePagingSource pagingSource, OnMessageClickListener listener) {
         this.context = context;
+        this.pagingSource = pagingSource;
         this.listener = listener;
+        pagingSource.setListener(this);
     }
 
-    public void setMessages(List<VaultMessage> messages) {
-        this.messages = messages == null ? new ArrayList<>() : messages;
+    public void reload() {
         selectedMessageIds.clear();
         notifySelectionChanged();
+        pagingSource.refresh();
+    }
+
+    public void setQuery(String query) {
+        pagingSource.setQuery(query);
+        pagingSource.refresh();
+    }
+
+    @Override
+    public void onCountChanged(int count) {
         notifyDataSetChanged();
+        if (countChangeListener != null) {
+            countChangeListener.onCountChanged(count);
+        }
+    }
+
+    @Override
+    public void onPageLoaded(int startPosition, int itemCount) {
+        notifyItemRangeChanged(startPosition, itemCount);
     }
 
     public void setSelectionChangeListener(SelectionChangeListener selectionChangeListener) {
         this.selectionChangeListener = selectionChangeListener;
     }
 
-    public List<VaultMessage> getSelectedMessages() {
-        List<VaultMessage> selected = new ArrayList<>();
-        for (VaultMessage message : messages) {
-            if (selectedMessageIds.contains(message.getLocalId())) {
-                selected.add(message);
-            }
-        }
-        return selected;
+    public void setCountChangeListener(CountChangeListener countChangeListener) {
+        this.countChangeListener = countChangeListener;
+    }
+
+    public Set<Long> getSelectedMessageIds() {
+        return new HashSet<>(selectedMessageIds);
     }
 
     public void clearSelection() {
@@ -73,7 +94,12 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        VaultMessage message = messages.get(position);
+        MessageSummary message = pagingSource.getItem(position);
+        if (message == null) {
+            bindPlaceholder(holder);
+            return;
+        }
+        holder.selectCheckBox.setEnabled(true);
         String address = TextUtils.isEmpty(message.getAddress())
                 ? context.getString(R.string.sms_document_title_unknown)
                 : message.getAddress();
@@ -81,9 +107,9 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         holder.dateTextView.setText(MessageFormatter.formatTimestamp(message.getDate()));
         holder.typeTextView.setText(getTypeLabel(message.getProviderType()));
 
-        String body = TextUtils.isEmpty(message.getBody())
+        CharSequence body = TextUtils.isEmpty(message.getPreview())
                 ? context.getString(R.string.sms_email_empty_body_placeholder)
-                : message.getBody();
+                : SearchUtils.highlight(message.getPreview());
         holder.bodyTextView.setText(body);
 
         holder.attachmentTextView.setVisibility(message.hasAttachments() ? View.VISIBLE : View.GONE);
@@ -103,9 +129,21 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         holder.itemView.setOnClickListener(v -> listener.onMessageClick(message));
     }
 
+    private void bindPlaceholder(MessageViewHolder holder) {
+        holder.addressTextView.setText(null);
+        holder.dateTextView.setText(null);
+        holder.typeTextView.setText(null);
+        holder.bodyTextView.setText(null);
+        holder.attachmentTextView.setVisibility(View.GONE);
+        holder.selectCheckBox.setOnCheckedChangeListener(null);
+        holder.selectCheckBox.setChecked(false);
+        holder.selectCheckBox.setEnabled(false);
+        holder.itemView.setOnClickListener(null);
+    }
+
     @Override
     public int getItemCount() {
-        return messages.size();
+        return pagingSource.getCount();
     }
 
     private String getTypeLabel(String providerType) {
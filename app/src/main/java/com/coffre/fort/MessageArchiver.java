@@ -0,0 +1,84 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+public class MessageArchiver {
+
+    public interface Listener {
+        void onProgress(int moved, int total);
+    }
+
+    private static final String TAG = "MessageArchiver";
+    private static final String PREFS_NAME = "message_archive";
+    private static final String KEY_ARCHIVE_AFTER_DAYS = "archive_after_days";
+    private static final String KEY_COMPRESS_BODIES = "compress_bodies";
+    private static final String KEY_LAST_RUN_AT = "last_run_at";
+    private static final String KEY_LAST_RUN_MOVED = "last_run_moved";
+    private static final String KEY_LAST_RUN_DURATION_MS = "last_run_duration_ms";
+    private static final int DEFAULT_ARCHIVE_AFTER_DAYS = 365;
+    private static final int CHUNK_SIZE = 200;
+
+    private final DatabaseHelper databaseHelper;
+    private final SharedPreferences preferences;
+
+    public MessageArchiver(Context context) {
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public int getArchiveAfterDays() {
+        return preferences.getInt(KEY_ARCHIVE_AFTER_DAYS, DEFAULT_ARCHIVE_AFTER_DAYS);
+    }
+
+    public void setArchiveAfterDays(int days) {
+        preferences.edit().putInt(KEY_ARCHIVE_AFTER_DAYS, days).apply();
+    }
+
+    public boolean isCompressBodies() {
+        return preferences.getBoolean(KEY_COMPRESS_BODIES, true);
+    }
+
+    public void setCompressBodies(boolean compressBodies) {
+        preferences.edit().putBoolean(KEY_COMPRESS_BODIES, compressBodies).apply();
+    }
+
+    public long getLastRunAt() {
+        return preferences.getLong(KEY_LAST_RUN_AT, 0L);
+    }
+
+    public int getLastRunMoved() {
+        return preferences.getInt(KEY_LAST_RUN_MOVED, 0);
+    }
+
+    public long getLastRunDurationMs() {
+        return preferences.getLong(KEY_LAST_RUN_DURATION_MS, 0L);
+    }
+
+    // Runs on the calling thread, one short transaction per chunk, until nothing is left or the scope is cancelled.
+    public int archiveOldMessages(VaultRepository.Scope scope, Listener listener) {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(getArchiveAfterDays());
+        boolean compress = isCompressBodies();
+        long start = SystemClock.elapsedRealtime();
+        int total = databaseHelper.countMessagesBefore(cutoff);
+        int moved = 0;
+        int chunk;
+        while (!scope.isCancelled() && moved < total
+                && (chunk = databaseHelper.archiveMessagesChunk(cutoff, CHUNK_SIZE, compress)) > 0) {
+            moved += chunk;
+            listener.onProgress(moved, total);
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+        preferences.edit()
+                .putLong(KEY_LAST_RUN_AT, System.currentTimeMillis())
+                .putInt(KEY_LAST_RUN_MOVED, moved)
+                .putLong(KEY_LAST_RUN_DURATION_MS, duration)
+                .apply();
+        Log.i(TAG, "Archived " + moved + "/" + total + " messages in " + duration + " ms");
+        return moved;
+    }
+}
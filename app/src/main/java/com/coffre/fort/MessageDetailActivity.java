@@ -9,7 +9,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.core.content.FileProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -27,7 +26,8 @@ public class MessageDetailActivity extends AppCompatActivity implements Attachme
     private TextView attachmentsEmptyTextView;
     private RecyclerView attachmentsRecyclerView;
 
-    private DatabaseHelper databaseHelper;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
     private AttachmentAdapter attachmentAdapter;
 
     @Override
@@ -43,7 +43,7 @@ public class MessageDetailActivity extends AppCompatActivity implements Attachme
         attachmentsEmptyTextView = findViewById(R.id.detailAttachmentsEmptyTextView);
         attachmentsRecyclerView = findViewById(R.id.detailAttachmentsRecyclerView);
 
-        databaseHelper = new DatabaseHelper(this);
+        repository = VaultRepository.getInstance(this);
         attachmentAdapter = new AttachmentAdapter(this);
         attachmentsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         attachmentsRecyclerView.setAdapter(attachmentAdapter);
@@ -60,13 +60,15 @@ public class MessageDetailActivity extends AppCompatActivity implements Attachme
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
+        scope.cancel();
     }
 
     private void loadMessage(long messageId) {
-        VaultMessage message = databaseHelper.getMessage(messageId);
+        repository.getMessage(scope, messageId, this::showMessage);
+        repository.getAttachmentsForMessage(scope, messageId, this::showAttachments);
+    }
+
+    private void showMessage(VaultMessage message) {
         if (message == null) {
             finish();
             return;
@@ -84,8 +86,9 @@ public class MessageDetailActivity extends AppCompatActivity implements Attachme
                 ? getString(R.string.sms_email_empty_body_placeholder)
                 : message.getBody();
         bodyTextView.setText(body);
+    }
 
-        List<MessageAttachment> attachments = databaseHelper.getAttachmentsForMessage(messageId);
+    private void showAttachments(List<MessageAttachment> attachments) {
         if (attachments.isEmpty()) {
             attachmentsEmptyTextView.setVisibility(android.view.View.VISIBLE);
             attachmentsRecyclerView.setVisibility(android.view.View.GONE);
@@ -103,7 +106,7 @@ public class MessageDetailActivity extends AppCompatActivity implements Attachme
             Toast.makeText(this, R.string.attachment_missing, Toast.LENGTH_SHORT).show();
             return;
         }
-        Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", file);
+        Uri uri = AttachmentProvider.getUri(this, file);
         Intent intent = new Intent(Intent.ACTION_VIEW);
         String mimeType = TextUtils.isEmpty(attachment.getContentType()) ? "*/*" : attachment.getContentType();
         intent.setDataAndType(uri, mimeType);
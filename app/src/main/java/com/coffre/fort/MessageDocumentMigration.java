@@ -0,0 +1,43 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.List;
+
+public final class MessageDocumentMigration {
+
+    private static final String TAG = "MessageDocMigration";
+    private static final String PREFS_NAME = "message_document_migration";
+    private static final String KEY_DONE = "done";
+    private static final int CHUNK_SIZE = 200;
+
+    private MessageDocumentMigration() {
+    }
+
+    public static void runIfNeeded(Context context) {
+        Context appContext = context.getApplicationContext();
+        new Thread(() -> {
+            SharedPreferences preferences = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            if (preferences.getBoolean(KEY_DONE, false)) {
+                return;
+            }
+            DatabaseHelper databaseHelper = DatabaseHelper.getInstance(appContext);
+            List<String> categories = CategoryUtils.getMessageCategoriesForQuery(appContext);
+            String fallbackCategory = appContext.getString(R.string.category_other);
+            try {
+                int migrated = 0;
+                int chunk;
+                while ((chunk = databaseHelper.migrateMessageDocumentsChunk(categories, fallbackCategory,
+                        CHUNK_SIZE)) > 0) {
+                    migrated += chunk;
+                }
+                preferences.edit().putBoolean(KEY_DONE, true).apply();
+                Log.i(TAG, "Migrated " + migrated + " message documents");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Message document migration interrupted", e);
+            }
+        }, TAG).start();
+    }
+}
@@ -12,11 +12,23 @@ public final class MessageFormatter {
     private MessageFormatter() {
     }
 
-    public static String buildDocumentContent(Context context, String sender, long timestamp, String messageBody) {
-        String safeBody = messageBody == null ? "" : messageBody;
-        String formattedDate = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT, Locale.getDefault())
-                .format(new Date(timestamp == 0L ? System.currentTimeMillis() : timestamp));
-        return context.getString(R.string.message_document_content, sender, formattedDate, safeBody);
+    // Reads back the sender line of the message_document_content layout used by older versions.
+    public static String parseDocumentSender(String content) {
+        if (content == null) {
+            return null;
+        }
+        int lineEnd = content.indexOf('\n');
+        String firstLine = lineEnd < 0 ? content : content.substring(0, lineEnd);
+        int separator = firstLine.indexOf(": ");
+        return separator < 0 ? null : firstLine.substring(separator + 2).trim();
+    }
+
+    public static String parseDocumentBody(String content) {
+        if (content == null) {
+            return null;
+        }
+        int bodyStart = content.indexOf("\n\n");
+        return bodyStart < 0 ? null : content.substring(bodyStart + 2);
     }
 
     public static String buildEmailBody(Context context, String sender, long timestamp, String messageBody) {
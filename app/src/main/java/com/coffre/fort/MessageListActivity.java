@@ -6,11 +6,15 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.text.TextUtils;
@@ -25,12 +29,17 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class MessageListActivity extends AppCompatActivity implements MessageAdapter.OnMessageClickListener {
 
     private static final int REQUEST_MESSAGE_PERMISSIONS = 2001;
+    private static final long SEARCH_DEBOUNCE_MS = 200L;
+    public static final String EXTRA_THREAD_KEY = "thread_key";
+    public static final String EXTRA_THREAD_ADDRESS = "thread_address";
 
     private RecyclerView messagesRecyclerView;
     private TextView emptyTextView;
@@ -40,8 +49,12 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
 
     private DatabaseHelper databaseHelper;
     private MessageAdapter adapter;
+    private MessagePagingSource pagingSource;
     private ExecutorService executorService;
     private BroadcastReceiver messagesUpdatedReceiver;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private String pendingQuery;
+    private final Runnable searchRunnable = () -> adapter.setQuery(pendingQuery);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,8 +62,11 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
         setContentView(R.layout.activity_message_list);
         setTitle(R.string.messages_title);
 
-        databaseHelper = new DatabaseHelper(this);
-        adapter = new MessageAdapter(this, this);
+        databaseHelper = DatabaseHelper.getInstance(this);
+        pagingSource = new MessagePagingSource(databaseHelper);
+        String threadKey = getIntent().getStringExtra(EXTRA_THREAD_KEY);
+        pagingSource.setThreadKey(threadKey);
+        adapter = new MessageAdapter(this, pagingSource, this);
         executorService = Executors.newSingleThreadExecutor();
 
         messagesRecyclerView = findViewById(R.id.messagesRecyclerView);
@@ -62,10 +78,33 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
         messagesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         messagesRecyclerView.setAdapter(adapter);
         adapter.setSelectionChangeListener(this::updateEmailButtonState);
+        adapter.setCountChangeListener(this::updateEmptyState);
 
         syncButton.setOnClickListener(v -> synchronizeMessages());
         emailButton.setOnClickListener(v -> sendSelectedMessagesByEmail());
 
+        EditText searchEditText = findViewById(R.id.messagesSearchEditText);
+        if (threadKey != null) {
+            setTitle(getIntent().getStringExtra(EXTRA_THREAD_ADDRESS));
+            searchEditText.setVisibility(View.GONE);
+        }
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                pendingQuery = s.toString().trim();
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
+
         messagesUpdatedReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -75,7 +114,6 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
         };
 
         requestMessagePermissionsIfNeeded();
-        loadMessages();
     }
 
     @Override
@@ -99,8 +137,9 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
+        searchHandler.removeCallbacks(searchRunnable);
+        if (pagingSource != null) {
+            pagingSource.close();
         }
         if (executorService != null) {
             executorService.shutdownNow();
@@ -108,16 +147,18 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
     }
 
     @Override
-    public void onMessageClick(VaultMessage message) {
+    public void onMessageClick(MessageSummary message) {
         Intent intent = new Intent(this, MessageDetailActivity.class);
         intent.putExtra("message_id", message.getLocalId());
         startActivity(intent);
     }
 
     private void loadMessages() {
-        List<VaultMessage> messages = databaseHelper.getAllMessages();
-        adapter.setMessages(messages);
-        boolean hasMessages = messages != null && !messages.isEmpty();
+        adapter.reload();
+    }
+
+    private void updateEmptyState(int count) {
+        boolean hasMessages = count > 0;
         emptyTextView.setVisibility(hasMessages ? View.GONE : View.VISIBLE);
         messagesRecyclerView.setVisibility(hasMessages ? View.VISIBLE : View.GONE);
     }
@@ -129,8 +170,8 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
     }
 
     private void sendSelectedMessagesByEmail() {
-        List<VaultMessage> selectedMessages = adapter.getSelectedMessages();
-        if (selectedMessages.isEmpty()) {
+        Set<Long> selectedIds = adapter.getSelectedMessageIds();
+        if (selectedIds.isEmpty()) {
             Toast.makeText(this, R.string.messages_email_none_selected, Toast.LENGTH_SHORT).show();
             return;
         }
@@ -141,6 +182,26 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
             return;
         }
 
+        // Selected rows may belong to pages that were dropped from memory, so reload them by id.
+        // The attachment lookup and file checks also stay off the UI thread.
+        executorService.execute(() -> {
+            List<VaultMessage> selectedMessages = databaseHelper.getMessagesByIds(selectedIds);
+            if (selectedMessages.isEmpty()) {
+                return;
+            }
+            String subject = buildEmailSubject(selectedMessages);
+            String body = buildEmailBody(selectedMessages);
+            List<EmailSender.EmailAttachment> attachments = collectAttachments(selectedMessages);
+            runOnUiThread(() -> {
+                if (!isFinishing()) {
+                    EmailSender.sendEmail(this, subject, body, attachments);
+                    adapter.clearSelection();
+                }
+            });
+        });
+    }
+
+    private String buildEmailSubject(List<VaultMessage> selectedMessages) {
         String subject;
         if (selectedMessages.size() == 1) {
             VaultMessage message = selectedMessages.get(0);
@@ -149,11 +210,7 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
         } else {
             subject = getString(R.string.messages_email_subject_multiple, selectedMessages.size());
         }
-
-        String body = buildEmailBody(selectedMessages);
-        List<EmailSender.EmailAttachment> attachments = collectAttachments(selectedMessages);
-        EmailSender.sendEmail(this, subject, body, attachments);
-        adapter.clearSelection();
+        return subject;
     }
 
     private String buildEmailBody(List<VaultMessage> messages) {
@@ -174,9 +231,17 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
     }
 
     private List<EmailSender.EmailAttachment> collectAttachments(List<VaultMessage> messages) {
+        List<Long> messageIds = new ArrayList<>(messages.size());
+        for (VaultMessage message : messages) {
+            messageIds.add(message.getLocalId());
+        }
+        Map<Long, List<MessageAttachment>> attachmentsByMessage = databaseHelper.getAttachmentsForMessages(messageIds);
         List<EmailSender.EmailAttachment> attachments = new ArrayList<>();
         for (VaultMessage message : messages) {
-            List<MessageAttachment> messageAttachments = databaseHelper.getAttachmentsForMessage(message.getLocalId());
+            List<MessageAttachment> messageAttachments = attachmentsByMessage.get(message.getLocalId());
+            if (messageAttachments == null) {
+                continue;
+            }
             for (MessageAttachment attachment : messageAttachments) {
                 File file = new File(attachment.getFilePath());
                 if (!file.exists()) {
@@ -185,7 +250,8 @@ public class MessageListActivity extends AppCompatActivity implements MessageAda
                 String mimeType = TextUtils.isEmpty(attachment.getContentType())
                         ? "application/octet-stream"
                         : attachment.getContentType();
-                attachments.add(new EmailSender.EmailAttachment(Uri.fromFile(file), mimeType, file.getName()));
+                attachments.add(new EmailSender.EmailAttachment(AttachmentProvider.getUri(this, file), mimeType,
+                        file.getName()));
             }
         }
         return attachments;
@@ -0,0 +1,160 @@
+package com.coffre.fort;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MessagePagingSource {
+
+    public interface Listener {
+        void onCountChanged(int count);
+
+        void onPageLoaded(int startPosition, int itemCount);
+    }
+
+    public static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES_IN_MEMORY = 5;
+
+    private final DatabaseHelper databaseHelper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<Integer, List<MessageSummary>> pages =
+            new LinkedHashMap<Integer, List<MessageSummary>>(MAX_PAGES_IN_MEMORY + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<MessageSummary>> eldest) {
+                    return size() > MAX_PAGES_IN_MEMORY;
+                }
+            };
+    // Last (date, localId) of each page seen so far, so the following page can be read by keyset.
+    private final Map<Integer, long[]> pageEndKeys = new HashMap<>();
+    private final Set<Integer> pendingPages = new HashSet<>();
+
+    private Listener listener;
+    private String query;
+    private String threadKey;
+    private int count;
+    private int generation;
+
+    public MessagePagingSource(DatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setQuery(String query) {
+        this.query = SearchUtils.toMatchExpression(query) == null ? null : query;
+    }
+
+    // Restricts the list to one conversation; search is not offered there.
+    public void setThreadKey(String threadKey) {
+        this.threadKey = threadKey;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public MessageSummary getItem(int position) {
+        int pageIndex = position / PAGE_SIZE;
+        List<MessageSummary> page = pages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex);
+            return null;
+        }
+        int offset = position % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    public void refresh() {
+        final int requestGeneration = ++generation;
+        pages.clear();
+        pageEndKeys.clear();
+        pendingPages.clear();
+        final String searchQuery = query;
+        final String thread = threadKey;
+        executor.execute(() -> {
+            int newCount;
+            if (searchQuery != null) {
+                newCount = databaseHelper.countMessageSearchHits(searchQuery);
+            } else if (thread != null) {
+                newCount = databaseHelper.getThreadMessageCount(thread);
+            } else {
+                newCount = databaseHelper.getMessageCount();
+            }
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                count = newCount;
+                if (listener != null) {
+                    listener.onCountChanged(newCount);
+                }
+            });
+        });
+    }
+
+    public void close() {
+        generation++;
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void requestPage(int pageIndex) {
+        if (!pendingPages.add(pageIndex)) {
+            return;
+        }
+        final int requestGeneration = generation;
+        final String searchQuery = query;
+        final String thread = threadKey;
+        final long[] previousEnd = pageEndKeys.get(pageIndex - 1);
+        executor.execute(() -> {
+            List<MessageSummary> page;
+            if (searchQuery != null) {
+                // Search hits are ordered by relevance, which has no stable keyset.
+                page = databaseHelper.searchMessages(searchQuery, pageIndex * PAGE_SIZE, PAGE_SIZE);
+            } else if (previousEnd != null) {
+                page = databaseHelper.getMessagesAfter(thread, previousEnd[0], previousEnd[1], PAGE_SIZE);
+            } else {
+                page = databaseHelper.getMessagesPage(thread, pageIndex * PAGE_SIZE, PAGE_SIZE);
+            }
+            mainHandler.post(() -> onPageLoaded(requestGeneration, pageIndex, page));
+        });
+    }
+
+    private void onPageLoaded(int requestGeneration, int pageIndex, List<MessageSummary> page) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        pendingPages.remove(pageIndex);
+        pages.put(pageIndex, page);
+        if (!page.isEmpty()) {
+            MessageSummary last = page.get(page.size() - 1);
+            pageEndKeys.put(pageIndex, new long[]{last.getDate(), last.getLocalId()});
+        }
+        int startPosition = pageIndex * PAGE_SIZE;
+        int itemCount = Math.min(PAGE_SIZE, count - startPosition);
+        if (page.size() < itemCount) {
+            // Messages were deleted or purged since the count was taken: the list ends where the rows do,
+            // instead of keeping placeholders that no page will ever fill.
+            count = startPosition + page.size();
+            if (listener != null) {
+                listener.onCountChanged(count);
+            }
+            return;
+        }
+        if (listener != null && itemCount > 0) {
+            listener.onPageLoaded(startPosition, itemCount);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.coffre.fort;
+
+public class MessageSummary {
+    private final long localId;
+    private final String providerType;
+    private final String address;
+    private final long date;
+    private final String preview;
+    private final boolean hasAttachments;
+
+    public MessageSummary(long localId, String providerType, String address, long date, String preview, boolean hasAttachments) {
+        this.localId = localId;
+        this.providerType = providerType;
+        this.address = address;
+        this.date = date;
+        this.preview = preview;
+        this.hasAttachments = hasAttachments;
+    }
+
+    public long getLocalId() {
+        return localId;
+    }
+
+    public String getProviderType() {
+        return providerType;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getDate() {
+        return date;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public boolean hasAttachments() {
+        return hasAttachments;
+    }
+}
@@ -0,0 +1,64 @@
+package com.coffre.fort;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+// Follow-up sync after a receive broadcast. The SMS app writes the provider row after the broadcast, and an MMS
+// is only in the inbox once downloaded, so the sync run by the receiver itself can come too early.
+public class MessageSyncJobService extends JobService {
+
+    private static final String TAG = "MessageSyncJob";
+    private static final int JOB_ID_SMS = 4002;
+    private static final int JOB_ID_MMS = 4003;
+    private static final long SMS_DELAY_MS = TimeUnit.SECONDS.toMillis(15);
+    private static final long MMS_DELAY_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long DEADLINE_SLACK_MS = TimeUnit.MINUTES.toMillis(5);
+
+    // Separate ids so that an SMS arriving meanwhile does not pull a pending MMS retry forward.
+    public static void scheduleAfterSms(Context context) {
+        schedule(context, JOB_ID_SMS, SMS_DELAY_MS);
+    }
+
+    public static void scheduleAfterMms(Context context) {
+        schedule(context, JOB_ID_MMS, MMS_DELAY_MS);
+    }
+
+    private static void schedule(Context context, int jobId, long delayMs) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null) {
+            return;
+        }
+        // Rescheduling the same id replaces the pending job, so a burst of messages ends in a single sync.
+        JobInfo job = new JobInfo.Builder(jobId, new ComponentName(context, MessageSyncJobService.class))
+                .setMinimumLatency(delayMs)
+                .setOverrideDeadline(delayMs + DEADLINE_SLACK_MS)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        new Thread(() -> {
+            try {
+                new MessageSyncManager(getApplicationContext()).synchronizeMessages();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Follow-up sync failed", e);
+            }
+            jobFinished(params, false);
+        }, TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The sync is incremental: whatever this run missed, the next one picks up.
+        return false;
+    }
+}
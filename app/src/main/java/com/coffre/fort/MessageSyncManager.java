@@ -16,12 +16,18 @@ import androidx.core.content.ContextCompat;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class MessageSyncManager {
 
@@ -30,18 +36,26 @@ public class MessageSyncManager {
     public static final String ACTION_MESSAGES_UPDATED = "com.coffre.fort.ACTION_MESSAGES_UPDATED";
     private static final int ADDRESS_TYPE_FROM = 137;
     private static final String TAG = "MessageSyncManager";
+    private static final int SMS_BATCH_SIZE = 500;
+    // Keeps each mid IN (...) list well under SQLite's 999 bound parameters.
+    private static final int MMS_BATCH_SIZE = 100;
+    private static final Uri CANONICAL_ADDRESSES_URI = Uri.parse("content://mms-sms/canonical-addresses");
+    public static final String ATTACHMENTS_DIRECTORY = "attachments";
 
     private final Context context;
     private final DatabaseHelper databaseHelper;
+    private final MessageSyncState syncState;
 
     public MessageSyncManager(Context context) {
         this.context = context;
-        this.databaseHelper = new DatabaseHelper(context);
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+        this.syncState = new MessageSyncState(context);
     }
 
     public void synchronizeMessages() {
         syncSms();
         syncMms();
+        databaseHelper.checkpoint();
         Intent intent = new Intent(ACTION_MESSAGES_UPDATED);
         intent.setPackage(context.getPackageName());
         context.sendBroadcast(intent);
@@ -52,62 +66,278 @@ public class MessageSyncManager {
                 && ContextCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED;
     }
 
+    // Steady state only reads rows above the high-water mark. The inbox count and max _id tell whether
+    // anything below it was deleted or restored since, and only then is the whole inbox copied again.
     private void syncSms() {
         if (!hasReadPermissions()) {
             return;
         }
+        try {
+            long[] fingerprint = queryFingerprint(Telephony.Sms.Inbox.CONTENT_URI, Telephony.Sms._ID);
+            if (fingerprint == null) {
+                return;
+            }
+            int count = (int) fingerprint[0];
+            long maxId = fingerprint[1];
+            String maxIdArg = String.valueOf(maxId);
+            if (syncState.hasSmsCheckpoint() && maxId >= syncState.getSmsLastId()) {
+                SmsPass pass = copySms(Telephony.Sms._ID + " > ? AND " + Telephony.Sms._ID + " <= ?",
+                        new String[]{String.valueOf(syncState.getSmsLastId()), maxIdArg});
+                int expected = syncState.getSmsCount() + pass.copied;
+                if (expected == count) {
+                    syncState.saveSmsCheckpoint(maxId, Math.max(syncState.getSmsLastDate(), pass.lastDate),
+                            count, false);
+                    return;
+                }
+                Log.i(TAG, "SMS inbox changed below the high-water mark (" + expected + " expected, "
+                        + count + " found), reconciling");
+            }
+            SmsPass pass = copySms(Telephony.Sms._ID + " <= ?", new String[]{maxIdArg});
+            syncState.saveSmsCheckpoint(maxId, pass.lastDate, pass.copied, true);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to synchronize SMS", e);
+        }
+    }
+
+    // {count, max _id} of a box, computed by the provider so that no rows cross the process boundary.
+    private long[] queryFingerprint(Uri boxUri, String idColumn) {
+        try (Cursor cursor = context.getContentResolver().query(boxUri,
+                new String[]{"COUNT(*)", "MAX(" + idColumn + ")"}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return new long[]{cursor.getLong(0), cursor.getLong(1)};
+            }
+        } catch (IllegalArgumentException | SecurityException e) {
+            // Some providers reject expressions in the projection; fall back to an id-only scan.
+            Log.w(TAG, "Aggregate query rejected for " + boxUri, e);
+        }
+        try (Cursor cursor = context.getContentResolver().query(boxUri, new String[]{idColumn},
+                null, null, idColumn + " DESC")) {
+            if (cursor == null) {
+                return null;
+            }
+            long maxId = cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+            return new long[]{cursor.getCount(), maxId};
+        }
+    }
+
+    private SmsPass copySms(String selection, String[] selectionArgs) {
+        SmsPass pass = new SmsPass();
         Uri inboxUri = Telephony.Sms.Inbox.CONTENT_URI;
         String[] projection = {Telephony.Sms._ID, Telephony.Sms.ADDRESS, Telephony.Sms.DATE, Telephony.Sms.BODY, Telephony.Sms.TYPE};
-        try (Cursor cursor = context.getContentResolver().query(inboxUri, projection, null, null, null)) {
+        try (Cursor cursor = context.getContentResolver().query(inboxUri, projection, selection, selectionArgs, null)) {
             if (cursor == null) {
-                return;
+                return pass;
             }
+            int idIndex = cursor.getColumnIndexOrThrow(Telephony.Sms._ID);
+            int addressIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.ADDRESS);
+            int dateIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.DATE);
+            int bodyIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.BODY);
+            int typeIndex = cursor.getColumnIndexOrThrow(Telephony.Sms.TYPE);
+
+            List<VaultMessage> batch = new ArrayList<>(SMS_BATCH_SIZE);
             while (cursor.moveToNext()) {
-                long providerId = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Sms._ID));
-                String address = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.ADDRESS));
-                long date = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Sms.DATE));
-                String body = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.BODY));
-                int boxType = cursor.getInt(cursor.getColumnIndexOrThrow(Telephony.Sms.TYPE));
-
-                VaultMessage message = new VaultMessage(providerId, PROVIDER_SMS, address, date, body, boxType, false);
-                databaseHelper.upsertMessage(message);
+                long providerId = cursor.getLong(idIndex);
+                String address = cursor.getString(addressIndex);
+                long date = cursor.getLong(dateIndex);
+                String body = cursor.getString(bodyIndex);
+                int boxType = cursor.getInt(typeIndex);
+
+                batch.add(new VaultMessage(providerId, PROVIDER_SMS, address, date, body, boxType, false));
+                pass.copied++;
+                pass.lastDate = Math.max(pass.lastDate, date);
+                if (batch.size() == SMS_BATCH_SIZE) {
+                    databaseHelper.upsertMessages(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                databaseHelper.upsertMessages(batch);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to synchronize SMS", e);
         }
+        return pass;
     }
 
+    // Same checkpointing as the SMS inbox. Parts and senders are then fetched for a whole batch of MMS at once
+    // instead of with three provider queries per message.
     private void syncMms() {
         if (!hasReadPermissions()) {
             return;
         }
+        try {
+            long[] fingerprint = queryFingerprint(Telephony.Mms.Inbox.CONTENT_URI, Telephony.Mms._ID);
+            if (fingerprint == null) {
+                return;
+            }
+            int count = (int) fingerprint[0];
+            long maxId = fingerprint[1];
+            String maxIdArg = String.valueOf(maxId);
+            if (syncState.hasMmsCheckpoint() && maxId >= syncState.getMmsLastId()) {
+                // New messages have no parts stored yet, so the per-part existence check stays cheap.
+                int copied = copyMms(Telephony.Mms._ID + " > ? AND " + Telephony.Mms._ID + " <= ?",
+                        new String[]{String.valueOf(syncState.getMmsLastId()), maxIdArg}, null);
+                int expected = syncState.getMmsCount() + copied;
+                if (expected == count) {
+                    syncState.saveMmsCheckpoint(maxId, count, false);
+                    return;
+                }
+                Log.i(TAG, "MMS inbox changed below the high-water mark (" + expected + " expected, "
+                        + count + " found), reconciling");
+            }
+            AttachmentPartIndex knownParts = databaseHelper.loadAttachmentPartIndex();
+            Log.d(TAG, "Loaded " + knownParts.size() + " known MMS parts (~"
+                    + knownParts.estimatedBytes() / 1024 + " KiB)");
+            int copied = copyMms(Telephony.Mms._ID + " <= ?", new String[]{maxIdArg}, knownParts);
+            syncState.saveMmsCheckpoint(maxId, copied, true);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to synchronize MMS", e);
+        }
+    }
+
+    private int copyMms(String selection, String[] selectionArgs, AttachmentPartIndex knownParts) {
         Uri inboxUri = Telephony.Mms.Inbox.CONTENT_URI;
-        String[] projection = {Telephony.Mms._ID, Telephony.Mms.DATE, Telephony.Mms.MESSAGE_BOX, Telephony.Mms.SUBJECT};
-        try (Cursor cursor = context.getContentResolver().query(inboxUri, projection, null, null, null)) {
+        String[] projection = {Telephony.Mms._ID, Telephony.Mms.THREAD_ID, Telephony.Mms.DATE,
+                Telephony.Mms.MESSAGE_BOX, Telephony.Mms.SUBJECT};
+        int copied = 0;
+        try (Cursor cursor = context.getContentResolver().query(inboxUri, projection, selection, selectionArgs, null)) {
             if (cursor == null) {
-                return;
+                return 0;
             }
+            int idIndex = cursor.getColumnIndexOrThrow(Telephony.Mms._ID);
+            int threadIndex = cursor.getColumnIndexOrThrow(Telephony.Mms.THREAD_ID);
+            int dateIndex = cursor.getColumnIndexOrThrow(Telephony.Mms.DATE);
+            int boxIndex = cursor.getColumnIndexOrThrow(Telephony.Mms.MESSAGE_BOX);
+            int subjectIndex = cursor.getColumnIndexOrThrow(Telephony.Mms.SUBJECT);
+
+            List<MmsRow> batch = new ArrayList<>(MMS_BATCH_SIZE);
             while (cursor.moveToNext()) {
-                long providerId = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Mms._ID));
-                long dateSeconds = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Mms.DATE));
+                long dateSeconds = cursor.getLong(dateIndex);
                 long timestamp = dateSeconds > 0 ? dateSeconds * 1000L : System.currentTimeMillis();
-                int boxType = cursor.getInt(cursor.getColumnIndexOrThrow(Telephony.Mms.MESSAGE_BOX));
+                batch.add(new MmsRow(cursor.getLong(idIndex), cursor.getLong(threadIndex), timestamp,
+                        cursor.getInt(boxIndex), cursor.getString(subjectIndex)));
+                if (batch.size() == MMS_BATCH_SIZE) {
+                    copied += copyMmsBatch(batch, knownParts);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                copied += copyMmsBatch(batch, knownParts);
+            }
+        }
+        return copied;
+    }
 
-                String address = extractSender(providerId);
-                String subject = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Mms.SUBJECT));
-                String body = extractTextParts(providerId, subject);
+    private int copyMmsBatch(List<MmsRow> batch, AttachmentPartIndex knownParts) {
+        List<Long> mmsIds = new ArrayList<>(batch.size());
+        Set<Long> threadIds = new HashSet<>();
+        for (MmsRow row : batch) {
+            mmsIds.add(row.providerId);
+            threadIds.add(row.threadId);
+        }
+        Map<Long, List<MmsPart>> partsByMessage = loadParts(mmsIds);
+        Map<Long, String> sendersByThread = loadThreadSenders(threadIds);
 
-                VaultMessage message = new VaultMessage(providerId, PROVIDER_MMS, address, timestamp, body, boxType, false);
-                long localId = databaseHelper.upsertMessage(message);
+        for (MmsRow row : batch) {
+            List<MmsPart> parts = partsByMessage.get(row.providerId);
+            if (parts == null) {
+                parts = Collections.emptyList();
+            }
+            String address = sendersByThread.get(row.threadId);
+            if (address == null) {
+                address = extractSender(row.providerId);
+            }
+            String body = buildTextBody(row.subject, parts);
 
-                boolean hasAttachments = processAttachments(providerId, localId);
-                if (hasAttachments) {
-                    databaseHelper.updateMessageAttachmentFlag(localId, true);
+            VaultMessage message = new VaultMessage(row.providerId, PROVIDER_MMS, address, row.timestamp, body,
+                    row.boxType, false);
+            long localId = databaseHelper.upsertMessage(message);
+
+            boolean hasAttachments = saveAttachments(row.providerId, localId, parts, knownParts);
+            if (hasAttachments) {
+                databaseHelper.updateMessageAttachmentFlag(localId, true);
+            }
+        }
+        return batch.size();
+    }
+
+    private Map<Long, List<MmsPart>> loadParts(List<Long> mmsIds) {
+        Map<Long, List<MmsPart>> partsByMessage = new HashMap<>();
+        Uri partUri = Uri.parse("content://mms/part");
+        try (Cursor cursor = context.getContentResolver().query(partUri,
+                new String[]{"_id", "mid", "ct", "text", "_data", "cl"},
+                "mid IN (" + placeholders(mmsIds.size()) + ")", toArgs(mmsIds), null)) {
+            if (cursor == null) {
+                return partsByMessage;
+            }
+            int idIndex = cursor.getColumnIndexOrThrow("_id");
+            int messageIndex = cursor.getColumnIndexOrThrow("mid");
+            int typeIndex = cursor.getColumnIndexOrThrow("ct");
+            int textIndex = cursor.getColumnIndexOrThrow("text");
+            int dataIndex = cursor.getColumnIndexOrThrow("_data");
+            int locationIndex = cursor.getColumnIndexOrThrow("cl");
+            while (cursor.moveToNext()) {
+                MmsPart part = new MmsPart(cursor.getString(idIndex), cursor.getString(typeIndex),
+                        cursor.getString(textIndex), !TextUtils.isEmpty(cursor.getString(dataIndex)),
+                        cursor.getString(locationIndex));
+                long mmsId = cursor.getLong(messageIndex);
+                List<MmsPart> parts = partsByMessage.get(mmsId);
+                if (parts == null) {
+                    parts = new ArrayList<>();
+                    partsByMessage.put(mmsId, parts);
                 }
+                parts.add(part);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to synchronize MMS", e);
         }
+        return partsByMessage;
+    }
+
+    // The MMS provider only exposes addresses one message at a time. In a one-to-one conversation the sender
+    // of a received MMS is the thread's only recipient, which two batched queries can resolve; group threads
+    // are left out and fall back to the per-message address lookup.
+    private Map<Long, String> loadThreadSenders(Set<Long> threadIds) {
+        Map<Long, String> senders = new HashMap<>();
+        Map<Long, Long> recipientByThread = new HashMap<>();
+        Uri threadsUri = Telephony.Threads.CONTENT_URI.buildUpon().appendQueryParameter("simple", "true").build();
+        List<Long> threads = new ArrayList<>(threadIds);
+        try {
+            try (Cursor cursor = context.getContentResolver().query(threadsUri,
+                    new String[]{Telephony.Threads._ID, Telephony.Threads.RECIPIENT_IDS},
+                    Telephony.Threads._ID + " IN (" + placeholders(threads.size()) + ")", toArgs(threads), null)) {
+                if (cursor == null) {
+                    return senders;
+                }
+                while (cursor.moveToNext()) {
+                    String recipientIds = cursor.getString(1);
+                    if (!TextUtils.isEmpty(recipientIds) && TextUtils.isDigitsOnly(recipientIds.trim())) {
+                        recipientByThread.put(cursor.getLong(0), Long.parseLong(recipientIds.trim()));
+                    }
+                }
+            }
+            if (recipientByThread.isEmpty()) {
+                return senders;
+            }
+            List<Long> recipients = new ArrayList<>(new HashSet<>(recipientByThread.values()));
+            Map<Long, String> addresses = new HashMap<>();
+            try (Cursor cursor = context.getContentResolver().query(CANONICAL_ADDRESSES_URI,
+                    new String[]{Telephony.CanonicalAddressesColumns._ID, Telephony.CanonicalAddressesColumns.ADDRESS},
+                    Telephony.CanonicalAddressesColumns._ID + " IN (" + placeholders(recipients.size()) + ")",
+                    toArgs(recipients), null)) {
+                if (cursor == null) {
+                    return senders;
+                }
+                while (cursor.moveToNext()) {
+                    addresses.put(cursor.getLong(0), cursor.getString(1));
+                }
+            }
+            for (Map.Entry<Long, Long> entry : recipientByThread.entrySet()) {
+                String address = addresses.get(entry.getValue());
+                if (!TextUtils.isEmpty(address)) {
+                    senders.put(entry.getKey(), address);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to resolve MMS senders by thread", e);
+        }
+        return senders;
     }
 
     private String extractSender(long mmsId) {
@@ -125,33 +355,21 @@ public class MessageSyncManager {
         return context.getString(R.string.sms_document_title_unknown);
     }
 
-    private String extractTextParts(long mmsId, String subject) {
+    private String buildTextBody(String subject, List<MmsPart> parts) {
         StringBuilder bodyBuilder = new StringBuilder();
         if (!TextUtils.isEmpty(subject)) {
             bodyBuilder.append(subject).append('\n');
         }
-        Uri partUri = Uri.parse("content://mms/part");
-        try (Cursor cursor = context.getContentResolver().query(partUri,
-                new String[]{"_id", "ct", "text", "_data"}, "mid = ?", new String[]{String.valueOf(mmsId)}, null)) {
-            if (cursor == null) {
-                return bodyBuilder.toString();
+        for (MmsPart part : parts) {
+            if (!part.isText()) {
+                continue;
             }
-            while (cursor.moveToNext()) {
-                String contentType = cursor.getString(cursor.getColumnIndexOrThrow("ct"));
-                if (contentType != null && contentType.startsWith("text/")) {
-                    String text = cursor.getString(cursor.getColumnIndexOrThrow("text"));
-                    String dataLocation = cursor.getString(cursor.getColumnIndexOrThrow("_data"));
-                    if (!TextUtils.isEmpty(dataLocation)) {
-                        String partId = cursor.getString(cursor.getColumnIndexOrThrow("_id"));
-                        text = readTextFromPart(partId);
-                    }
-                    if (!TextUtils.isEmpty(text)) {
-                        if (bodyBuilder.length() > 0) {
-                            bodyBuilder.append('\n');
-                        }
-                        bodyBuilder.append(text);
-                    }
+            String text = part.hasData ? readTextFromPart(part.partId) : part.text;
+            if (!TextUtils.isEmpty(text)) {
+                if (bodyBuilder.length() > 0) {
+                    bodyBuilder.append('\n');
                 }
+                bodyBuilder.append(text);
             }
         }
         if (bodyBuilder.length() == 0) {
@@ -181,45 +399,44 @@ public class MessageSyncManager {
         }
     }
 
-    private boolean processAttachments(long mmsId, long messageLocalId) {
-        Uri partUri = Uri.parse("content://mms/part");
+    // knownParts is only loaded for a full reconcile; incremental passes ask the database part by part.
+    private boolean saveAttachments(long mmsId, long messageLocalId, List<MmsPart> parts,
+                                    AttachmentPartIndex knownParts) {
         boolean hasAttachment = false;
-        try (Cursor cursor = context.getContentResolver().query(partUri,
-                new String[]{"_id", "ct", "name", "cl", "_data"}, "mid = ?",
-                new String[]{String.valueOf(mmsId)}, null)) {
-            if (cursor == null) {
-                return false;
+        for (MmsPart part : parts) {
+            if (part.contentType == null || part.isText()) {
+                continue;
             }
-            while (cursor.moveToNext()) {
-                String contentType = cursor.getString(cursor.getColumnIndexOrThrow("ct"));
-                if (contentType == null || contentType.startsWith("text/")) {
-                    continue;
-                }
-                String partId = cursor.getString(cursor.getColumnIndexOrThrow("_id"));
-                if (databaseHelper.attachmentExists(messageLocalId, partId)) {
-                    hasAttachment = true;
-                    continue;
-                }
-                Uri dataUri = ContentUris.withAppendedId(Uri.parse("content://mms/part"), Long.parseLong(partId));
-                String fileName = buildAttachmentName(mmsId, partId, contentType,
-                        cursor.getString(cursor.getColumnIndexOrThrow("cl")));
+            boolean known = knownParts != null
+                    ? knownParts.contains(messageLocalId, part.partId)
+                    : databaseHelper.attachmentExists(messageLocalId, part.partId);
+            if (known) {
+                hasAttachment = true;
+                continue;
+            }
+            try {
+                Uri dataUri = ContentUris.withAppendedId(Uri.parse("content://mms/part"), Long.parseLong(part.partId));
+                String fileName = buildAttachmentName(mmsId, part.partId, part.contentType, part.contentLocation);
                 File destination = new File(getAttachmentsDir(), fileName);
                 long size = copyToFile(dataUri, destination);
                 if (size > 0) {
-                    MessageAttachment attachment = new MessageAttachment(messageLocalId, partId,
-                            destination.getAbsolutePath(), contentType, size);
+                    MessageAttachment attachment = new MessageAttachment(messageLocalId, part.partId,
+                            destination.getAbsolutePath(), part.contentType, size);
                     databaseHelper.insertAttachment(attachment);
+                    if (knownParts != null) {
+                        knownParts.add(messageLocalId, part.partId);
+                    }
                     hasAttachment = true;
                 }
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to process MMS attachment " + part.partId, e);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Unable to process MMS attachments", e);
         }
         return hasAttachment;
     }
 
     private File getAttachmentsDir() {
-        File dir = new File(context.getFilesDir(), "attachments");
+        File dir = new File(context.getFilesDir(), ATTACHMENTS_DIRECTORY);
         if (!dir.exists()) {
             //noinspection ResultOfMethodCallIgnored
             dir.mkdirs();
@@ -229,7 +446,7 @@ public class MessageSyncManager {
 
     private long copyToFile(Uri source, File destination) {
         try (InputStream in = context.getContentResolver().openInputStream(source);
-             OutputStream out = new FileOutputStream(destination)) {
+             OutputStream out = AttachmentCrypto.openOutputStream(context, destination)) {
             if (in == null) {
                 return 0L;
             }
@@ -243,6 +460,8 @@ public class MessageSyncManager {
             return total;
         } catch (IOException e) {
             Log.e(TAG, "Failed to copy MMS attachment", e);
+            //noinspection ResultOfMethodCallIgnored
+            destination.delete();
             return 0L;
         }
     }
@@ -260,4 +479,61 @@ public class MessageSyncManager {
         }
         return String.format(Locale.US, "%d_%s_%s", mmsId, partId, fallbackName);
     }
+
+    private static final class SmsPass {
+        int copied;
+        long lastDate;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.toString();
+    }
+
+    private static String[] toArgs(List<Long> ids) {
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(ids.get(i));
+        }
+        return args;
+    }
+
+    private static final class MmsRow {
+        final long providerId;
+        final long threadId;
+        final long timestamp;
+        final int boxType;
+        final String subject;
+
+        MmsRow(long providerId, long threadId, long timestamp, int boxType, String subject) {
+            this.providerId = providerId;
+            this.threadId = threadId;
+            this.timestamp = timestamp;
+            this.boxType = boxType;
+            this.subject = subject;
+        }
+    }
+
+    private static final class MmsPart {
+        final String partId;
+        final String contentType;
+        final String text;
+        final boolean hasData;
+        final String contentLocation;
+
+        MmsPart(String partId, String contentType, String text, boolean hasData, String contentLocation) {
+            this.partId = partId;
+            this.contentType = contentType;
+            this.text = text;
+            this.hasData = hasData;
+            this.contentLocation = contentLocation;
+        }
+
+        boolean isText() {
+            return contentType != null && contentType.startsWith("text/");
+        }
+    }
 }
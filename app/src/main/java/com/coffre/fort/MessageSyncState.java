@@ -0,0 +1,85 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+// High-water marks of the last sync, together with the provider fingerprint they were taken against.
+public class MessageSyncState {
+
+    private static final String PREFS_NAME = "message_sync";
+    private static final String KEY_SMS_LAST_ID = "sms_last_id";
+    private static final String KEY_SMS_LAST_DATE = "sms_last_date";
+    private static final String KEY_SMS_COUNT = "sms_count";
+    private static final String KEY_SMS_LAST_RECONCILE_AT = "sms_last_reconcile_at";
+    private static final String KEY_MMS_LAST_ID = "mms_last_id";
+    private static final String KEY_MMS_COUNT = "mms_count";
+    private static final String KEY_MMS_LAST_RECONCILE_AT = "mms_last_reconcile_at";
+
+    private final SharedPreferences preferences;
+
+    public MessageSyncState(Context context) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean hasSmsCheckpoint() {
+        return preferences.contains(KEY_SMS_LAST_ID);
+    }
+
+    public long getSmsLastId() {
+        return preferences.getLong(KEY_SMS_LAST_ID, 0L);
+    }
+
+    public long getSmsLastDate() {
+        return preferences.getLong(KEY_SMS_LAST_DATE, 0L);
+    }
+
+    public int getSmsCount() {
+        return preferences.getInt(KEY_SMS_COUNT, 0);
+    }
+
+    public long getSmsLastReconcileAt() {
+        return preferences.getLong(KEY_SMS_LAST_RECONCILE_AT, 0L);
+    }
+
+    public void saveSmsCheckpoint(long lastId, long lastDate, int count, boolean reconciled) {
+        SharedPreferences.Editor editor = preferences.edit()
+                .putLong(KEY_SMS_LAST_ID, lastId)
+                .putLong(KEY_SMS_LAST_DATE, lastDate)
+                .putInt(KEY_SMS_COUNT, count);
+        if (reconciled) {
+            editor.putLong(KEY_SMS_LAST_RECONCILE_AT, System.currentTimeMillis());
+        }
+        editor.apply();
+    }
+
+    public boolean hasMmsCheckpoint() {
+        return preferences.contains(KEY_MMS_LAST_ID);
+    }
+
+    public long getMmsLastId() {
+        return preferences.getLong(KEY_MMS_LAST_ID, 0L);
+    }
+
+    public int getMmsCount() {
+        return preferences.getInt(KEY_MMS_COUNT, 0);
+    }
+
+    public long getMmsLastReconcileAt() {
+        return preferences.getLong(KEY_MMS_LAST_RECONCILE_AT, 0L);
+    }
+
+    public void saveMmsCheckpoint(long lastId, int count, boolean reconciled) {
+        SharedPreferences.Editor editor = preferences.edit()
+                .putLong(KEY_MMS_LAST_ID, lastId)
+                .putInt(KEY_MMS_COUNT, count);
+        if (reconciled) {
+            editor.putLong(KEY_MMS_LAST_RECONCILE_AT, System.currentTimeMillis());
+        }
+        editor.apply();
+    }
+
+    // After a purge everything still on the phone has to be copied again.
+    public void reset() {
+        preferences.edit().clear().apply();
+    }
+}
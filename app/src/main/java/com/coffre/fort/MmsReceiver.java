@@ -70,11 +70,13 @@ public class MmsReceiver extends BroadcastReceiver {
             String body = extractTextParts(context, mmsId, subject);
 
             new MessageSyncManager(context).synchronizeMessages();
+            MessageSyncJobService.scheduleAfterMms(context);
 
+            // Only used to hand the attachment to the e-mail; the message itself is stored by the sync, now or in the
+            // follow-up job once the download has completed.
             Document document = new Document();
             document.setTitle(context.getString(R.string.message_document_title, sender));
             document.setCategory(context.getString(R.string.category_messages));
-            document.setContent(MessageFormatter.buildDocumentContent(context, sender, timestamp, body));
             document.setTimestamp(timestamp);
 
             AttachmentInfo attachmentInfo = findFirstAttachment(context, mmsId);
@@ -84,16 +86,10 @@ public class MmsReceiver extends BroadcastReceiver {
                 document.setAttachmentName(attachmentInfo.displayName);
             }
 
-            DatabaseHelper databaseHelper = new DatabaseHelper(context);
-            long documentId = databaseHelper.addDocument(document);
-            databaseHelper.close();
-            document.setId((int) documentId);
-
             MessageEmailDispatcher.dispatch(context, document, sender, MessageEmailDispatcher.MessageType.MMS, body, timestamp);
 
             Intent refreshIntent = new Intent(SmsReceiver.ACTION_SMS_SAVED);
             refreshIntent.setPackage(context.getPackageName());
-            refreshIntent.putExtra("document_id", document.getId());
             context.sendBroadcast(refreshIntent);
         } catch (Exception e) {
             Log.e(TAG, "Failed to process MMS", e);
@@ -0,0 +1,177 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Stored hashes read "<algorithm>$<iterations>$<salt>$<hash>", so each one carries the cost it was made with.
+// Hashes from before this format are a bare SHA-256 hex digest.
+public class PasswordHasher {
+
+    private static final String TAG = "PasswordHasher";
+    private static final String PREFS_NAME = "password_kdf";
+    private static final String KEY_ALGORITHM = "algorithm";
+    private static final String KEY_ITERATIONS = "iterations";
+    private static final String KEY_CALIBRATION_MS = "calibration_ms";
+    private static final String KEY_CALIBRATED_AT = "calibrated_at";
+    private static final String SEPARATOR = "$";
+    // PBKDF2WithHmacSHA256 only ships from API 26; older devices fall back to the SHA-1 variant.
+    private static final String[] ALGORITHMS = {"PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA1"};
+    private static final long TARGET_MS = 250L;
+    private static final int PROBE_ITERATIONS = 20_000;
+    private static final int MIN_ITERATIONS = 10_000;
+    private static final int MAX_ITERATIONS = 2_000_000;
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SharedPreferences preferences;
+
+    public PasswordHasher(Context context) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public String hash(String password) {
+        String algorithm = getAlgorithm();
+        int iterations = getIterations();
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(algorithm, password, salt, iterations);
+        return algorithm + SEPARATOR + iterations + SEPARATOR
+                + Base64.encodeToString(salt, Base64.NO_WRAP) + SEPARATOR
+                + Base64.encodeToString(hash, Base64.NO_WRAP);
+    }
+
+    public boolean verify(String password, String stored) {
+        if (isLegacy(stored)) {
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.US_ASCII),
+                    legacyHash(password).getBytes(StandardCharsets.US_ASCII));
+        }
+        String[] parts = stored.split("\\" + SEPARATOR);
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.decode(parts[2], Base64.NO_WRAP);
+            byte[] expected = Base64.decode(parts[3], Base64.NO_WRAP);
+            return MessageDigest.isEqual(expected, derive(parts[0], password, salt, iterations));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Malformed password hash", e);
+            return false;
+        } catch (IllegalStateException e) {
+            // The stored algorithm is missing on this device, e.g. after a backup was restored to an older one.
+            Log.e(TAG, "Unable to verify password hash", e);
+            return false;
+        }
+    }
+
+    // True for legacy digests and for hashes made before the device was calibrated to a higher cost.
+    public boolean needsRehash(String stored) {
+        if (isLegacy(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\" + SEPARATOR);
+        try {
+            return parts.length != 4 || !parts[0].equals(getAlgorithm())
+                    || Integer.parseInt(parts[1]) < getIterations();
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    public long getCalibrationMs() {
+        return preferences.getLong(KEY_CALIBRATION_MS, 0L);
+    }
+
+    private boolean isLegacy(String stored) {
+        return !stored.contains(SEPARATOR);
+    }
+
+    private String getAlgorithm() {
+        calibrateIfNeeded();
+        return preferences.getString(KEY_ALGORITHM, ALGORITHMS[ALGORITHMS.length - 1]);
+    }
+
+    private int getIterations() {
+        calibrateIfNeeded();
+        return preferences.getInt(KEY_ITERATIONS, MIN_ITERATIONS);
+    }
+
+    // Runs once per install: times a short derivation and scales it to the target unlock latency.
+    private synchronized void calibrateIfNeeded() {
+        if (preferences.contains(KEY_ITERATIONS)) {
+            return;
+        }
+        String algorithm = pickAlgorithm();
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        // The first run pays for class loading and JIT, so only the second one is timed.
+        derive(algorithm, "calibration", salt, PROBE_ITERATIONS);
+        long start = System.nanoTime();
+        derive(algorithm, "calibration", salt, PROBE_ITERATIONS);
+        long probeNanos = Math.max(1L, System.nanoTime() - start);
+        long scaled = PROBE_ITERATIONS * TARGET_MS * 1_000_000L / probeNanos;
+        int iterations = (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, scaled / 1000 * 1000));
+        long estimatedMs = probeNanos * iterations / PROBE_ITERATIONS / 1_000_000L;
+        preferences.edit()
+                .putString(KEY_ALGORITHM, algorithm)
+                .putInt(KEY_ITERATIONS, iterations)
+                .putLong(KEY_CALIBRATION_MS, estimatedMs)
+                .putLong(KEY_CALIBRATED_AT, System.currentTimeMillis())
+                .apply();
+        Log.i(TAG, String.format(Locale.US, "Calibrated %s: %d iterations in %.2f ms, %d iterations for ~%d ms",
+                algorithm, PROBE_ITERATIONS, probeNanos / 1_000_000.0, iterations, estimatedMs));
+    }
+
+    private static String pickAlgorithm() {
+        for (String algorithm : ALGORITHMS) {
+            try {
+                SecretKeyFactory.getInstance(algorithm);
+                return algorithm;
+            } catch (NoSuchAlgorithmException ignored) {
+            }
+        }
+        throw new IllegalStateException("No PBKDF2 implementation available");
+    }
+
+    private static byte[] derive(String algorithm, String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String legacyHash(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) {
+                    hexString.append('0');
+                }
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.coffre.fort;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.StyleSpan;
+
+public final class SearchUtils {
+
+    public static final String HIGHLIGHT_START = "\u0002";
+    public static final String HIGHLIGHT_END = "\u0003";
+
+    private SearchUtils() {
+    }
+
+    public static String toMatchExpression(String query) {
+        if (TextUtils.isEmpty(query)) {
+            return null;
+        }
+        StringBuilder expression = new StringBuilder();
+        for (String rawToken : query.trim().split("\\s+")) {
+            StringBuilder token = new StringBuilder();
+            for (int i = 0; i < rawToken.length(); i++) {
+                char c = rawToken.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    token.append(c);
+                }
+            }
+            if (token.length() == 0) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append(token).append('*');
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    public static CharSequence highlight(String text) {
+        if (text == null || !text.contains(HIGHLIGHT_START)) {
+            return text;
+        }
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        int index = 0;
+        while (index < text.length()) {
+            int start = text.indexOf(HIGHLIGHT_START, index);
+            if (start < 0) {
+                builder.append(text, index, text.length());
+                break;
+            }
+            builder.append(text, index, start);
+            int end = text.indexOf(HIGHLIGHT_END, start);
+            if (end < 0) {
+                end = text.length();
+            }
+            int spanStart = builder.length();
+            builder.append(text, start + HIGHLIGHT_START.length(), end);
+            builder.setSpan(new StyleSpan(Typeface.BOLD), spanStart, builder.length(),
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            index = end + HIGHLIGHT_END.length();
+        }
+        return builder;
+    }
+}
@@ -7,7 +7,10 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.text.format.Formatter;
+import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -19,6 +22,8 @@ import androidx.core.content.ContextCompat;
 
 import com.google.android.material.textfield.TextInputEditText;
 
+import java.util.Map;
+
 public class SettingsActivity extends AppCompatActivity {
 
     private static final int REQUEST_PERMISSION_SMS = 2002;
@@ -29,15 +34,22 @@ public class SettingsActivity extends AppCompatActivity {
             Manifest.permission.READ_SMS
     };
 
-    private DatabaseHelper databaseHelper;
+    private VaultRepository repository;
+    private final VaultRepository.Scope scope = new VaultRepository.Scope();
     private EmailConfigManager emailConfigManager;
 
     private TextInputEditText currentPasswordEditText;
     private TextInputEditText newPasswordEditText;
     private TextInputEditText confirmPasswordEditText;
     private TextView documentCountTextView;
+    private TextView messageStatsTextView;
+    private TextView storageStatsTextView;
+    private TextView archiveStatsTextView;
     private TextView emailStatusTextView;
     private TextView permissionStatusTextView;
+    private TextView purgeProgressTextView;
+    private ProgressBar purgeProgressBar;
+    private Button deleteAllButton;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,19 +57,24 @@ public class SettingsActivity extends AppCompatActivity {
         setContentView(R.layout.activity_settings);
         setTitle(R.string.settings_title);
 
-        databaseHelper = new DatabaseHelper(this);
+        repository = VaultRepository.getInstance(this);
         emailConfigManager = new EmailConfigManager(this);
 
         currentPasswordEditText = findViewById(R.id.currentPasswordEditText);
         newPasswordEditText = findViewById(R.id.newPasswordEditText);
         confirmPasswordEditText = findViewById(R.id.confirmPasswordEditText);
         documentCountTextView = findViewById(R.id.documentCountTextView);
+        messageStatsTextView = findViewById(R.id.messageStatsTextView);
+        storageStatsTextView = findViewById(R.id.storageStatsTextView);
+        archiveStatsTextView = findViewById(R.id.archiveStatsTextView);
         emailStatusTextView = findViewById(R.id.emailStatusTextView);
         permissionStatusTextView = findViewById(R.id.permissionStatusTextView);
+        purgeProgressTextView = findViewById(R.id.purgeProgressTextView);
+        purgeProgressBar = findViewById(R.id.purgeProgressBar);
 
         Button updatePasswordButton = findViewById(R.id.updatePasswordButton);
         Button logoutButton = findViewById(R.id.logoutButton);
-        Button deleteAllButton = findViewById(R.id.deleteAllButton);
+        deleteAllButton = findViewById(R.id.deleteAllButton);
         Button emailSettingsButton = findViewById(R.id.emailSettingsButton);
         Button mailTestButton = findViewById(R.id.mailTestButton);
         Button requestPermissionButton = findViewById(R.id.requestPermissionButton);
@@ -91,14 +108,16 @@ public class SettingsActivity extends AppCompatActivity {
             return;
         }
 
-        if (!databaseHelper.verifyPassword(currentPassword)) {
-            Toast.makeText(this, R.string.settings_password_invalid_current, Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        databaseHelper.setPassword(newPassword);
-        Toast.makeText(this, R.string.settings_password_updated, Toast.LENGTH_SHORT).show();
-        clearPasswordFields();
+        repository.verifyPassword(scope, currentPassword, valid -> {
+            if (!valid) {
+                Toast.makeText(this, R.string.settings_password_invalid_current, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            repository.setPassword(scope, newPassword, result -> {
+                Toast.makeText(this, R.string.settings_password_updated, Toast.LENGTH_SHORT).show();
+                clearPasswordFields();
+            });
+        });
     }
 
     private void logout() {
@@ -109,21 +128,57 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     private void confirmDeleteAll() {
-        int documentCount = databaseHelper.getDocumentCount();
-        String message = getString(R.string.settings_delete_all_message, documentCount);
-
-        new AlertDialog.Builder(this)
-                .setTitle(R.string.settings_delete_all_title)
-                .setMessage(message)
-                .setPositiveButton(R.string.yes, (dialog, which) -> deleteAllDocuments())
-                .setNegativeButton(R.string.no, (dialog, which) -> dialog.dismiss())
-                .show();
+        if (VaultPurger.isRunning()) {
+            Toast.makeText(this, R.string.settings_delete_all_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        repository.getCategoryStats(scope, categoryStats -> {
+            int documentCount = 0;
+            int messageCount = 0;
+            for (CategoryStats stats : categoryStats.values()) {
+                if (DatabaseHelper.STATS_KEY_MESSAGES.equals(stats.getCategory())) {
+                    messageCount = stats.getItemCount();
+                } else {
+                    documentCount += stats.getItemCount();
+                }
+            }
+            String message = getString(R.string.settings_delete_all_message, documentCount, messageCount);
+
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.settings_delete_all_title)
+                    .setMessage(message)
+                    .setPositiveButton(R.string.yes, (dialog, which) -> purgeVault())
+                    .setNegativeButton(R.string.no, (dialog, which) -> dialog.dismiss())
+                    .show();
+        });
     }
 
-    private void deleteAllDocuments() {
-        int deleted = databaseHelper.deleteAllDocuments();
-        refreshDocumentSummary();
-        Toast.makeText(this, getString(R.string.settings_delete_all_success, deleted), Toast.LENGTH_SHORT).show();
+    private void purgeVault() {
+        boolean started = new VaultPurger(this).purgeAll(scope, new VaultPurger.Listener() {
+            @Override
+            public void onProgress(int deleted, int total) {
+                purgeProgressBar.setMax(Math.max(total, 1));
+                purgeProgressBar.setProgress(deleted);
+                purgeProgressTextView.setText(getString(R.string.settings_delete_all_progress, deleted, total));
+            }
+
+            @Override
+            public void onComplete(int deleted) {
+                purgeProgressBar.setVisibility(View.GONE);
+                purgeProgressTextView.setVisibility(View.GONE);
+                deleteAllButton.setEnabled(true);
+                refreshDocumentSummary();
+                Toast.makeText(SettingsActivity.this, getString(R.string.settings_delete_all_success, deleted),
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+        if (!started) {
+            Toast.makeText(this, R.string.settings_delete_all_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        deleteAllButton.setEnabled(false);
+        purgeProgressBar.setVisibility(View.VISIBLE);
+        purgeProgressTextView.setVisibility(View.VISIBLE);
     }
 
     private void openEmailSettings() {
@@ -159,8 +214,40 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     private void refreshDocumentSummary() {
-        int count = databaseHelper.getDocumentCount();
+        repository.getCategoryStats(scope, this::showDocumentSummary);
+        repository.getStorageStats(scope, stats -> storageStatsTextView.setText(getString(
+                R.string.settings_storage_stats,
+                Formatter.formatShortFileSize(this, stats.getFileBytes()),
+                Formatter.formatShortFileSize(this, stats.getLiveBytes()))));
+        repository.getArchiveSummary(scope, this, this::showArchiveSummary);
+    }
+
+    private void showArchiveSummary(ArchiveSummary archive) {
+        String summary = getString(R.string.settings_archive_stats, archive.getArchivedCount(),
+                archive.getArchiveAfterDays());
+        if (archive.getLastRunAt() > 0) {
+            summary += "\n" + getString(R.string.settings_archive_last_run,
+                    MessageFormatter.formatTimestamp(archive.getLastRunAt()),
+                    archive.getLastRunMoved(), archive.getLastRunDurationMs());
+        }
+        archiveStatsTextView.setText(summary);
+    }
+
+    private void showDocumentSummary(Map<String, CategoryStats> categoryStats) {
+        int count = 0;
+        CategoryStats messageStats = null;
+        for (CategoryStats stats : categoryStats.values()) {
+            if (DatabaseHelper.STATS_KEY_MESSAGES.equals(stats.getCategory())) {
+                messageStats = stats;
+            } else {
+                count += stats.getItemCount();
+            }
+        }
         documentCountTextView.setText(getString(R.string.settings_document_count, count));
+        int messageCount = messageStats == null ? 0 : messageStats.getItemCount();
+        long attachmentBytes = messageStats == null ? 0L : messageStats.getAttachmentBytes();
+        messageStatsTextView.setText(getString(R.string.settings_message_stats, messageCount,
+                Formatter.formatShortFileSize(this, attachmentBytes)));
     }
 
     private void refreshPermissionSummary() {
@@ -234,6 +321,12 @@ public class SettingsActivity extends AppCompatActivity {
         return TextUtils.isEmpty(value) ? getString(R.string.settings_placeholder_value) : value;
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        scope.cancel();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -71,25 +71,21 @@ public class SmsReceiver extends BroadcastReceiver {
         }
 
         new MessageSyncManager(context).synchronizeMessages();
+        MessageSyncJobService.scheduleAfterSms(context);
 
         String rawBody = messageBody.toString();
 
+        // The message is stored by the sync above, or by the follow-up job if the SMS app had not written it yet;
+        // this Document only carries the e-mail details and is never saved.
         Document document = new Document();
         document.setTitle(context.getString(R.string.message_document_title, sender));
         document.setCategory(context.getString(R.string.category_messages));
-        document.setContent(MessageFormatter.buildDocumentContent(context, sender, messageTimestamp, rawBody));
         document.setTimestamp(messageTimestamp == 0L ? System.currentTimeMillis() : messageTimestamp);
 
-        DatabaseHelper databaseHelper = new DatabaseHelper(context);
-        long documentId = databaseHelper.addDocument(document);
-        databaseHelper.close();
-        document.setId((int) documentId);
-
         MessageEmailDispatcher.dispatch(context, document, sender, MessageEmailDispatcher.MessageType.SMS, rawBody, document.getTimestamp());
 
         Intent refreshIntent = new Intent(ACTION_SMS_SAVED);
         refreshIntent.setPackage(context.getPackageName());
-        refreshIntent.putExtra("document_id", document.getId());
         context.sendBroadcast(refreshIntent);
     }
 
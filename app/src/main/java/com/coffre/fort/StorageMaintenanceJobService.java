@@ -0,0 +1,145 @@
+package com.coffre.fort;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class StorageMaintenanceJobService extends JobService {
+
+    private static final String TAG = "StorageMaintenance";
+    private static final int JOB_ID = 4001;
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final int PAGES_PER_STEP = 256;
+    // Each run frees what it can in this window and leaves the rest for the next idle period.
+    private static final long TIME_BUDGET_MS = 5_000L;
+
+    private volatile VaultRepository.Scope scope;
+
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, StorageMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        VaultRepository.Scope jobScope = new VaultRepository.Scope();
+        scope = jobScope;
+        new Thread(() -> {
+            // Archiving first leaves free pages behind in the hot table for the compaction to release.
+            archive(jobScope);
+            compact(jobScope);
+            encryptLegacyAttachments(jobScope);
+            jobFinished(params, false);
+        }, TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        VaultRepository.Scope jobScope = scope;
+        if (jobScope != null) {
+            jobScope.cancel();
+        }
+        return false;
+    }
+
+    private void archive(VaultRepository.Scope jobScope) {
+        try {
+            new MessageArchiver(this).archiveOldMessages(jobScope,
+                    (moved, total) -> Log.d(TAG, "Archived " + moved + "/" + total));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Message archiving failed", e);
+        }
+    }
+
+    private void compact(VaultRepository.Scope jobScope) {
+        DatabaseHelper databaseHelper = DatabaseHelper.getInstance(this);
+        try {
+            if (databaseHelper.ensureIncrementalAutoVacuum()) {
+                Log.i(TAG, "Converted database to incremental auto-vacuum");
+            } else {
+                long deadline = SystemClock.elapsedRealtime() + TIME_BUDGET_MS;
+                long freePages = databaseHelper.getFreePageCount();
+                while (!jobScope.isCancelled() && freePages > 0 && SystemClock.elapsedRealtime() < deadline) {
+                    databaseHelper.incrementalVacuum(PAGES_PER_STEP);
+                    freePages = databaseHelper.getFreePageCount();
+                }
+                Log.d(TAG, "Free pages left after compaction: " + freePages);
+            }
+            databaseHelper.checkpoint();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Storage maintenance failed", e);
+        }
+    }
+
+    // Attachments copied before encryption at rest stayed plaintext; each run converts what it can. The first
+    // run that leaves none behind records it, and plaintext attachments are refused from then on.
+    private void encryptLegacyAttachments(VaultRepository.Scope jobScope) {
+        if (AttachmentCrypto.areLegacyFilesEncrypted(this)) {
+            return;
+        }
+        File directory = new File(getFilesDir(), MessageSyncManager.ATTACHMENTS_DIRECTORY);
+        File[] files = directory.listFiles();
+        if (files == null) {
+            // Either nothing was ever copied, or the directory could not be listed and proves nothing.
+            if (!directory.exists()) {
+                recordLegacyFilesEncrypted();
+            }
+            return;
+        }
+        int encrypted = 0;
+        boolean complete = true;
+        for (File file : files) {
+            if (jobScope.isCancelled()) {
+                complete = false;
+                break;
+            }
+            if (file.getName().endsWith(AttachmentCrypto.TEMP_SUFFIX)) {
+                // Left behind by a run that was killed mid-way; the original is still in place.
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                continue;
+            }
+            try {
+                if (file.isFile() && !AttachmentCrypto.isEncrypted(file)) {
+                    AttachmentCrypto.encryptInPlace(this, file);
+                    encrypted++;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to encrypt attachment " + file.getName(), e);
+                complete = false;
+            }
+        }
+        if (encrypted > 0) {
+            Log.i(TAG, "Encrypted " + encrypted + " legacy attachments");
+        }
+        if (complete) {
+            recordLegacyFilesEncrypted();
+        }
+    }
+
+    private void recordLegacyFilesEncrypted() {
+        try {
+            AttachmentCrypto.markLegacyFilesEncrypted(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to record the attachment migration", e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.coffre.fort;
+
+public class StorageStats {
+    private final long fileBytes;
+    private final long liveBytes;
+
+    public StorageStats(long fileBytes, long liveBytes) {
+        this.fileBytes = fileBytes;
+        this.liveBytes = liveBytes;
+    }
+
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+}
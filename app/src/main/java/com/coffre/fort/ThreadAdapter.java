@@ -0,0 +1,111 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.ThreadViewHolder> {
+
+    public interface OnThreadClickListener {
+        void onThreadClick(ThreadSummary thread);
+    }
+
+    private List<ThreadSummary> threads = new ArrayList<>();
+    private final OnThreadClickListener listener;
+
+    public ThreadAdapter(OnThreadClickListener listener) {
+        this.listener = listener;
+    }
+
+    public void setThreads(List<ThreadSummary> threads) {
+        this.threads = threads;
+        notifyDataSetChanged();
+    }
+
+    public void appendThreads(List<ThreadSummary> page) {
+        if (page.isEmpty()) {
+            return;
+        }
+        int start = threads.size();
+        threads.addAll(page);
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    public ThreadSummary getLastThread() {
+        return threads.isEmpty() ? null : threads.get(threads.size() - 1);
+    }
+
+    @NonNull
+    @Override
+    public ThreadViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_thread, parent, false);
+        return new ThreadViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ThreadViewHolder holder, int position) {
+        holder.bind(threads.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return threads.size();
+    }
+
+    class ThreadViewHolder extends RecyclerView.ViewHolder {
+        private final TextView addressTextView;
+        private final TextView unreadTextView;
+        private final TextView dateTextView;
+        private final TextView previewTextView;
+        private final TextView countTextView;
+
+        ThreadViewHolder(@NonNull View itemView) {
+            super(itemView);
+            addressTextView = itemView.findViewById(R.id.threadAddressTextView);
+            unreadTextView = itemView.findViewById(R.id.threadUnreadTextView);
+            dateTextView = itemView.findViewById(R.id.threadDateTextView);
+            previewTextView = itemView.findViewById(R.id.threadPreviewTextView);
+            countTextView = itemView.findViewById(R.id.threadCountTextView);
+
+            itemView.setOnClickListener(v -> {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && listener != null) {
+                    listener.onThreadClick(threads.get(position));
+                }
+            });
+        }
+
+        void bind(ThreadSummary thread) {
+            Context context = itemView.getContext();
+            addressTextView.setText(TextUtils.isEmpty(thread.getAddress())
+                    ? context.getString(R.string.sms_document_title_unknown)
+                    : thread.getAddress());
+            dateTextView.setText(MessageFormatter.formatTimestamp(thread.getLastDate()));
+            previewTextView.setText(TextUtils.isEmpty(thread.getLastPreview())
+                    ? context.getString(R.string.sms_email_empty_body_placeholder)
+                    : thread.getLastPreview());
+
+            String count = context.getString(R.string.conversation_message_count, thread.getTotalCount());
+            if (thread.hasAttachments()) {
+                count = context.getString(R.string.conversation_count_with_attachments, count);
+            }
+            countTextView.setText(count);
+
+            if (thread.getUnreadCount() > 0) {
+                unreadTextView.setVisibility(View.VISIBLE);
+                unreadTextView.setText(context.getString(R.string.conversation_unread, thread.getUnreadCount()));
+            } else {
+                unreadTextView.setVisibility(View.GONE);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.coffre.fort;
+
+public class ThreadSummary {
+    private final String threadKey;
+    private final String address;
+    private final long lastMessageId;
+    private final String lastPreview;
+    private final long lastDate;
+    private final int totalCount;
+    private final int unreadCount;
+    private final boolean hasAttachments;
+
+    public ThreadSummary(String threadKey, String address, long lastMessageId, String lastPreview, long lastDate,
+                         int totalCount, int unreadCount, boolean hasAttachments) {
+        this.threadKey = threadKey;
+        this.address = address;
+        this.lastMessageId = lastMessageId;
+        this.lastPreview = lastPreview;
+        this.lastDate = lastDate;
+        this.totalCount = totalCount;
+        this.unreadCount = unreadCount;
+        this.hasAttachments = hasAttachments;
+    }
+
+    public String getThreadKey() {
+        return threadKey;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public String getLastPreview() {
+        return lastPreview;
+    }
+
+    public long getLastDate() {
+        return lastDate;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public boolean hasAttachments() {
+        return hasAttachments;
+    }
+}
@@ -0,0 +1,40 @@
+package com.coffre.fort;
+
+public class TimelineEntry {
+    // Also the tie-break order between items sharing a timestamp: documents come first.
+    public static final int KIND_MESSAGE = 0;
+    public static final int KIND_DOCUMENT = 1;
+
+    private final DocumentSummary document;
+    private final MessageSummary message;
+
+    public TimelineEntry(DocumentSummary document) {
+        this.document = document;
+        this.message = null;
+    }
+
+    public TimelineEntry(MessageSummary message) {
+        this.document = null;
+        this.message = message;
+    }
+
+    public int getKind() {
+        return document != null ? KIND_DOCUMENT : KIND_MESSAGE;
+    }
+
+    public long getId() {
+        return document != null ? document.getId() : message.getLocalId();
+    }
+
+    public long getTimestamp() {
+        return document != null ? document.getTimestamp() : message.getDate();
+    }
+
+    public DocumentSummary getDocument() {
+        return document;
+    }
+
+    public MessageSummary getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,97 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class VaultPurger {
+
+    public interface Listener {
+        void onProgress(int deleted, int total);
+
+        void onComplete(int deleted);
+    }
+
+    private static final String TAG = "VaultPurger";
+    // Small enough that each transaction, and the lock it holds, stays short on slow storage.
+    private static final int CHUNK_SIZE = 200;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private final Context context;
+    private final DatabaseHelper databaseHelper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public VaultPurger(Context context) {
+        this.context = context.getApplicationContext();
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+    }
+
+    public static boolean isRunning() {
+        return running.get();
+    }
+
+    public boolean purgeAll(VaultRepository.Scope scope, Listener listener) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            int deleted = 0;
+            try {
+                int total = databaseHelper.getDocumentCount() + databaseHelper.getMessageCount();
+                post(scope, () -> listener.onProgress(0, total));
+
+                int chunk;
+                while ((chunk = databaseHelper.deleteDocumentsChunk(CHUNK_SIZE)) > 0) {
+                    deleted += chunk;
+                    int progress = deleted;
+                    post(scope, () -> listener.onProgress(progress, total));
+                }
+                while ((chunk = databaseHelper.deleteMessagesChunk(CHUNK_SIZE)) > 0) {
+                    deleted += chunk;
+                    int progress = deleted;
+                    post(scope, () -> listener.onProgress(progress, total));
+                }
+
+                new MessageSyncState(context).reset();
+                deleteOrphanFiles(new File(context.getFilesDir(), MessageSyncManager.ATTACHMENTS_DIRECTORY));
+                databaseHelper.getContentStore().deleteAll();
+                databaseHelper.reclaimSpace();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Purge interrupted", e);
+            } finally {
+                running.set(false);
+            }
+            int result = deleted;
+            post(scope, () -> listener.onComplete(result));
+        });
+        return true;
+    }
+
+    private void deleteOrphanFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+
+    private void post(VaultRepository.Scope scope, Runnable runnable) {
+        mainHandler.post(() -> {
+            if (!scope.isCancelled()) {
+                runnable.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,239 @@
+package com.coffre.fort;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class VaultRepository {
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    public interface ContentListener {
+        void onChunk(String chunk);
+
+        void onComplete(boolean success);
+    }
+
+    private interface Task<T> {
+        T run(DatabaseHelper databaseHelper);
+    }
+
+    // One per activity: results of a cancelled scope are dropped instead of reaching a destroyed UI.
+    public static final class Scope {
+        private volatile boolean cancelled;
+        private Runnable failureListener;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        // Called on the main thread, after the error toast, when a task of this scope threw: its callback
+        // will never run, so whatever the screen disabled while waiting has to be restored here.
+        public void setFailureListener(Runnable failureListener) {
+            this.failureListener = failureListener;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final String TAG = "VaultRepository";
+    private static final int CONTENT_CHUNK_SIZE = 32 * 1024;
+    // WAL lets reads run side by side; two threads keep a slow list query from holding up the next screen.
+    private static final int READ_THREADS = 2;
+
+    private static volatile VaultRepository instance;
+
+    private final Context context;
+    private final DatabaseHelper databaseHelper;
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS);
+    // SQLite has one writer anyway; the password hash (a few hundred ms) runs here too, away from the reads.
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    // A large document can take a while to stream; it must not hold up reads behind it.
+    private final ExecutorService contentExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static VaultRepository getInstance(Context context) {
+        VaultRepository repository = instance;
+        if (repository == null) {
+            synchronized (VaultRepository.class) {
+                repository = instance;
+                if (repository == null) {
+                    repository = new VaultRepository(context.getApplicationContext(),
+                            DatabaseHelper.getInstance(context));
+                    instance = repository;
+                }
+            }
+        }
+        return repository;
+    }
+
+    private VaultRepository(Context context, DatabaseHelper databaseHelper) {
+        this.context = context;
+        this.databaseHelper = databaseHelper;
+    }
+
+    public void getThreadsPage(Scope scope, ThreadSummary after, int limit, Callback<List<ThreadSummary>> callback) {
+        read(scope, helper -> helper.getThreadsPage(after, limit), callback);
+    }
+
+    public void markThreadRead(Scope scope, String threadKey, Callback<Void> callback) {
+        write(scope, helper -> {
+            helper.markThreadRead(threadKey);
+            return null;
+        }, callback);
+    }
+
+    public void getCategoryStats(Scope scope, Callback<Map<String, CategoryStats>> callback) {
+        read(scope, DatabaseHelper::getCategoryStats, callback);
+    }
+
+    public void getStorageStats(Scope scope, Callback<StorageStats> callback) {
+        read(scope, DatabaseHelper::getStorageStats, callback);
+    }
+
+    // The archiver settings live in shared preferences, whose first load reads a file, so they are read here too.
+    public void getArchiveSummary(Scope scope, Context context, Callback<ArchiveSummary> callback) {
+        Context appContext = context.getApplicationContext();
+        read(scope, helper -> {
+            MessageArchiver archiver = new MessageArchiver(appContext);
+            return new ArchiveSummary(helper.getArchivedMessageCount(), archiver.getArchiveAfterDays(),
+                    archiver.getLastRunAt(), archiver.getLastRunMoved(), archiver.getLastRunDurationMs());
+        }, callback);
+    }
+
+    public void getDocument(Scope scope, int id, Callback<Document> callback) {
+        Document cached = databaseHelper.peekDocument(id);
+        if (cached != null) {
+            callback.onResult(cached);
+            return;
+        }
+        read(scope, helper -> helper.getDocument(id), callback);
+    }
+
+    // Out-of-line content is handed over in chunks so the first screenful shows before the whole file is read.
+    public void streamDocumentContent(Scope scope, Document document, ContentListener listener) {
+        String contentFile = document.getContentFile();
+        contentExecutor.execute(() -> {
+            boolean success = true;
+            char[] buffer = new char[CONTENT_CHUNK_SIZE];
+            try (Reader reader = databaseHelper.getContentStore().openReader(contentFile)) {
+                int read;
+                while (!scope.isCancelled() && (read = reader.read(buffer)) != -1) {
+                    String chunk = new String(buffer, 0, read);
+                    mainHandler.post(() -> {
+                        if (!scope.isCancelled()) {
+                            listener.onChunk(chunk);
+                        }
+                    });
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Unable to read document content", e);
+                success = false;
+            }
+            deliver(scope, success, listener::onComplete);
+        });
+    }
+
+    public void addDocument(Scope scope, Document document, Callback<Long> callback) {
+        write(scope, helper -> helper.addDocument(document), callback);
+    }
+
+    public void updateDocumentCategory(Scope scope, int id, String category, Callback<Boolean> callback) {
+        write(scope, helper -> helper.updateDocumentCategory(id, category), callback);
+    }
+
+    public void deleteDocument(Scope scope, int id, Callback<Void> callback) {
+        write(scope, helper -> {
+            helper.deleteDocument(id);
+            return null;
+        }, callback);
+    }
+
+    public void getMessage(Scope scope, long localId, Callback<VaultMessage> callback) {
+        VaultMessage cached = databaseHelper.peekMessage(localId);
+        if (cached != null) {
+            callback.onResult(cached);
+            return;
+        }
+        read(scope, helper -> helper.getMessage(localId), callback);
+    }
+
+    public void getAttachmentsForMessage(Scope scope, long localId, Callback<List<MessageAttachment>> callback) {
+        read(scope, helper -> helper.getAttachmentsForMessage(localId), callback);
+    }
+
+    public void hasPassword(Scope scope, Callback<Boolean> callback) {
+        read(scope, DatabaseHelper::hasPassword, callback);
+    }
+
+    // A write: a successful check may re-hash the password at the current cost, which must not be skipped.
+    public void verifyPassword(Scope scope, String password, Callback<Boolean> callback) {
+        write(scope, helper -> helper.verifyPassword(password), callback);
+    }
+
+    public void setPassword(Scope scope, String password, Callback<Void> callback) {
+        write(scope, helper -> {
+            helper.setPassword(password);
+            return null;
+        }, callback);
+    }
+
+    private <T> void read(Scope scope, Task<T> task, Callback<T> callback) {
+        readExecutor.execute(() -> {
+            if (scope.isCancelled()) {
+                return;
+            }
+            run(scope, task, callback);
+        });
+    }
+
+    // Writes still run once queued even if the screen goes away; only the result is dropped.
+    private <T> void write(Scope scope, Task<T> task, Callback<T> callback) {
+        writeExecutor.execute(() -> run(scope, task, callback));
+    }
+
+    private <T> void run(Scope scope, Task<T> task, Callback<T> callback) {
+        T result;
+        try {
+            result = task.run(databaseHelper);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Vault task failed", e);
+            mainHandler.post(() -> {
+                if (scope.isCancelled()) {
+                    return;
+                }
+                Toast.makeText(context, R.string.vault_task_error, Toast.LENGTH_LONG).show();
+                if (scope.failureListener != null) {
+                    scope.failureListener.run();
+                }
+            });
+            return;
+        }
+        deliver(scope, result, callback);
+    }
+
+    private <T> void deliver(Scope scope, T result, Callback<T> callback) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(() -> {
+            if (!scope.isCancelled()) {
+                callback.onResult(result);
+            }
+        });
+    }
+}
@@ -0,0 +1,250 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+// Round trips around the 64 KB chunk boundary, and the ways a damaged file has to fail.
+@RunWith(RobolectricTestRunner.class)
+public class AttachmentCryptoTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Magic plus nonce prefix, and the GCM tag sealed onto every chunk.
+    private static final int HEADER_LENGTH = 12;
+    private static final int SEALED_CHUNK_SIZE = CHUNK_SIZE + 16;
+    private static final int[] SIZES = {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 2 * CHUNK_SIZE, 200_000};
+    private static final int THROUGHPUT_BYTES = 16 * 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SecretKey key;
+
+    @Before
+    public void setUp() {
+        byte[] raw = new byte[32];
+        new Random(7).nextBytes(raw);
+        key = new SecretKeySpec(raw, "AES");
+    }
+
+    @Test
+    public void roundTripsAroundChunkBoundaries() throws IOException {
+        for (int size : SIZES) {
+            byte[] plain = randomBytes(size);
+            File file = encrypt(plain);
+            assertTrue(AttachmentCrypto.isEncrypted(file));
+            assertEquals("size " + size, size, AttachmentCrypto.getPlaintextLength(file));
+            assertArrayEquals("size " + size, plain, decrypt(file));
+        }
+    }
+
+    @Test
+    public void singleByteWritesAndReadsRoundTrip() throws IOException {
+        byte[] plain = randomBytes(CHUNK_SIZE + 10);
+        File file = folder.newFile();
+        try (OutputStream out = AttachmentCrypto.openOutputStream(file, key)) {
+            for (byte b : plain) {
+                out.write(b);
+            }
+        }
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream in = AttachmentCrypto.openInputStream(file, key)) {
+            int b;
+            while ((b = in.read()) != -1) {
+                read.write(b);
+            }
+        }
+        assertArrayEquals(plain, read.toByteArray());
+    }
+
+    @Test
+    public void truncatedFilesFail() throws IOException {
+        byte[] plain = randomBytes(200_000);
+        // Cut inside the last chunk, and exactly on a chunk boundary so the remaining chunks look complete.
+        long[] lengths = {HEADER_LENGTH + 3L * SEALED_CHUNK_SIZE + 100, HEADER_LENGTH + 2L * SEALED_CHUNK_SIZE,
+                HEADER_LENGTH + 5};
+        for (long length : lengths) {
+            File file = encrypt(plain);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+            assertDecryptFails(file);
+        }
+    }
+
+    @Test
+    public void tamperedChunkFails() throws IOException {
+        File file = encrypt(randomBytes(200_000));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = HEADER_LENGTH + SEALED_CHUNK_SIZE + 1234;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x01);
+        }
+        assertDecryptFails(file);
+    }
+
+    @Test
+    public void droppedOrReorderedChunksFail() throws IOException {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(200_000)).toPath());
+        byte[] header = Arrays.copyOfRange(sealed, 0, HEADER_LENGTH);
+        byte[] first = Arrays.copyOfRange(sealed, HEADER_LENGTH, HEADER_LENGTH + SEALED_CHUNK_SIZE);
+        byte[] second = Arrays.copyOfRange(sealed, HEADER_LENGTH + SEALED_CHUNK_SIZE,
+                HEADER_LENGTH + 2 * SEALED_CHUNK_SIZE);
+        byte[] rest = Arrays.copyOfRange(sealed, HEADER_LENGTH + 2 * SEALED_CHUNK_SIZE, sealed.length);
+
+        assertDecryptFails(write(header, first, rest));
+        assertDecryptFails(write(header, second, first, rest));
+    }
+
+    @Test
+    public void plaintextFilesArePassedThrough() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        byte[] plain = "piece jointe copiée avant le chiffrement".getBytes("UTF-8");
+        File file = write(plain);
+        assertFalse(AttachmentCrypto.isEncrypted(file));
+        assertEquals(plain.length, AttachmentCrypto.getPlaintextLength(file));
+        // Legacy files never reach the Keystore, so the public entry point works here.
+        try (InputStream in = AttachmentCrypto.openInputStream(context, file)) {
+            assertArrayEquals(plain, readAll(in));
+        }
+    }
+
+    @Test
+    public void plaintextFilesAreRefusedOnceLegacyFilesAreEncrypted() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        File file = write("piece jointe deposee apres la migration".getBytes("UTF-8"));
+        AttachmentCrypto.markLegacyFilesEncrypted(context);
+        assertTrue(AttachmentCrypto.areLegacyFilesEncrypted(context));
+        try {
+            AttachmentCrypto.openInputStream(context, file).close();
+            fail("Plaintext file opened after the migration");
+        } catch (IOException expected) {
+            // Refused before any key is needed.
+        }
+    }
+
+    @Test
+    public void throughputAgainstPlainCopy() throws IOException {
+        byte[] plain = randomBytes(THROUGHPUT_BYTES);
+        byte[] buffer = new byte[CHUNK_SIZE];
+        // Warm up the cipher and the file paths before timing.
+        decrypt(encrypt(Arrays.copyOf(plain, 4 * CHUNK_SIZE)));
+
+        File copy = folder.newFile();
+        long start = System.nanoTime();
+        try (OutputStream out = new FileOutputStream(copy)) {
+            out.write(plain);
+        }
+        try (InputStream in = new FileInputStream(copy)) {
+            while (in.read(buffer) != -1) {
+                // Drain.
+            }
+        }
+        long plainNanos = System.nanoTime() - start;
+
+        File sealed = folder.newFile();
+        start = System.nanoTime();
+        try (OutputStream out = AttachmentCrypto.openOutputStream(sealed, key)) {
+            out.write(plain);
+        }
+        long encryptNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        try (InputStream in = AttachmentCrypto.openInputStream(sealed, key)) {
+            while (in.read(buffer) != -1) {
+                // Drain.
+            }
+        }
+        long decryptNanos = System.nanoTime() - start;
+
+        System.out.println(String.format(Locale.US,
+                "%d MB: plain write+read %.1f MB/s, encrypt %.1f MB/s, decrypt %.1f MB/s",
+                THROUGHPUT_BYTES >> 20, megabytesPerSecond(2L * THROUGHPUT_BYTES, plainNanos),
+                megabytesPerSecond(THROUGHPUT_BYTES, encryptNanos),
+                megabytesPerSecond(THROUGHPUT_BYTES, decryptNanos)));
+        assertEquals(THROUGHPUT_BYTES, AttachmentCrypto.getPlaintextLength(sealed));
+    }
+
+    private void assertDecryptFails(File file) {
+        try {
+            decrypt(file);
+            fail("Damaged attachment of " + file.length() + " bytes was accepted");
+        } catch (IOException expected) {
+            // Authentication or truncation failure.
+        }
+    }
+
+    private File encrypt(byte[] plain) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = AttachmentCrypto.openOutputStream(file, key)) {
+            out.write(plain);
+        }
+        return file;
+    }
+
+    private byte[] decrypt(File file) throws IOException {
+        try (InputStream in = AttachmentCrypto.openInputStream(file, key)) {
+            return readAll(in);
+        }
+    }
+
+    private File write(byte[]... parts) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        }
+        return file;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+}
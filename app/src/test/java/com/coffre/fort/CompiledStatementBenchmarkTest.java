@@ -0,0 +1,117 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.List;
+
+// Per-call cost of the cached compiled statements against building the SQL, ContentValues and Cursor each
+// time, the way these paths worked before.
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class CompiledStatementBenchmarkTest {
+
+    private static final int MESSAGE_COUNT = 2_000;
+    private static final int CALLS = 20_000;
+
+    private DatabaseHelper databaseHelper;
+    private long[] localIds;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        databaseHelper = new DatabaseHelper(context);
+        List<VaultMessage> messages = SyntheticVault.messages(MESSAGE_COUNT);
+        localIds = new long[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            localIds[i] = databaseHelper.upsertMessage(messages.get(i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.closeForTests();
+    }
+
+    @Test
+    public void cachedStatementsMatchTheRebuiltQueries() {
+        long localId = localIds[0];
+        assertFalse(databaseHelper.attachmentExists(localId, "10"));
+        databaseHelper.insertAttachment(new MessageAttachment(localId, "10", "a.jpg", "image/jpeg", 1L));
+        assertTrue(databaseHelper.attachmentExists(localId, "10"));
+        assertTrue(rebuiltAttachmentExists(databaseHelper.getReadableDatabase(), localId, "10"));
+        // The UNIQUE(messageLocalId, providerPartId) constraint ignores the second copy.
+        databaseHelper.insertAttachment(new MessageAttachment(localId, "10", "a.jpg", "image/jpeg", 1L));
+        assertEquals(1, databaseHelper.getAttachmentsForMessage(localId).size());
+    }
+
+    @Test
+    public void attachmentExistsPerCallCost() {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        long[] cached = new long[CALLS];
+        long[] rebuilt = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long localId = localIds[i % MESSAGE_COUNT];
+            String partId = String.valueOf(i);
+            long start = System.nanoTime();
+            databaseHelper.attachmentExists(localId, partId);
+            cached[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            rebuiltAttachmentExists(db, localId, partId);
+            rebuilt[i] = System.nanoTime() - start;
+        }
+        System.out.println("attachmentExists, cached statement: " + SyntheticVault.describe(cached));
+        System.out.println("attachmentExists, rebuilt query:    " + SyntheticVault.describe(rebuilt));
+        assertTrue(SyntheticVault.mean(cached) < SyntheticVault.mean(rebuilt));
+    }
+
+    @Test
+    public void insertAttachmentPerCallCost() {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        long[] cached = new long[CALLS];
+        long[] rebuilt = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long localId = localIds[i % MESSAGE_COUNT];
+            long start = System.nanoTime();
+            databaseHelper.insertAttachment(new MessageAttachment(localId, "c" + i, "c" + i, "image/jpeg", i));
+            cached[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ContentValues values = new ContentValues();
+            values.put("messageLocalId", localId);
+            values.put("providerPartId", "r" + i);
+            values.put("filePath", "r" + i);
+            values.put("contentType", "image/jpeg");
+            values.put("sizeBytes", i);
+            db.insert("message_attachments", null, values);
+            rebuilt[i] = System.nanoTime() - start;
+        }
+        System.out.println("insertAttachment, cached statement:  " + SyntheticVault.describe(cached));
+        System.out.println("insert with ContentValues per call: " + SyntheticVault.describe(rebuilt));
+    }
+
+    private static boolean rebuiltAttachmentExists(SQLiteDatabase db, long localId, String partId) {
+        Cursor cursor = db.query("message_attachments", new String[]{"attachmentId"},
+                "messageLocalId = ? AND providerPartId = ?", new String[]{String.valueOf(localId), partId},
+                null, null, null, "1");
+        boolean exists = cursor.moveToFirst();
+        cursor.close();
+        return exists;
+    }
+}
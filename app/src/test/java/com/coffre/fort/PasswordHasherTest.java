@@ -0,0 +1,130 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.Locale;
+
+// Calibration runs on the host JVM here, so the iteration count it picks is the host's, not a phone's.
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class PasswordHasherTest {
+
+    // SHA-256 of "secret", the format stored before PBKDF2.
+    private static final String LEGACY_SECRET = "2bb80d537b1da3e38bd30361aa855686bde0eacd7162fef6a25fe97bf527a25b";
+    private static final int RUNS = 5;
+
+    private Context context;
+    private PasswordHasher hasher;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        hasher = new PasswordHasher(context);
+    }
+
+    @Test
+    public void calibrationHitsTheTargetCost() {
+        String stored = hasher.hash("secret");
+        int iterations = Integer.parseInt(stored.split("\\$")[1]);
+        long[] hashNanos = new long[RUNS];
+        long[] verifyNanos = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            hasher.hash("secret");
+            hashNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertTrue(hasher.verify("secret", stored));
+            verifyNanos[i] = System.nanoTime() - start;
+        }
+        System.out.println(String.format(Locale.US,
+                "%s: %d iterations, calibrated for %d ms, hash %.1f ms, verify %.1f ms (mean of %d)",
+                stored.split("\\$")[0], iterations, hasher.getCalibrationMs(),
+                SyntheticVault.mean(hashNanos) / 1_000_000.0, SyntheticVault.mean(verifyNanos) / 1_000_000.0, RUNS));
+        assertTrue(iterations >= 10_000 && iterations <= 2_000_000);
+        assertTrue(hasher.getCalibrationMs() > 0);
+        // Calibration happens once per install: a new instance reads the stored cost back.
+        assertFalse(new PasswordHasher(context).needsRehash(stored));
+    }
+
+    @Test
+    public void verifiesSaltedHashes() {
+        String first = hasher.hash("secret");
+        String second = hasher.hash("secret");
+        assertNotEquals(first, second);
+        assertTrue(hasher.verify("secret", first));
+        assertTrue(hasher.verify("secret", second));
+        assertFalse(hasher.verify("Secret", first));
+        assertFalse(hasher.needsRehash(first));
+    }
+
+    @Test
+    public void legacyDigestsVerifyAndNeedRehash() {
+        assertTrue(hasher.verify("secret", LEGACY_SECRET));
+        assertFalse(hasher.verify("autre", LEGACY_SECRET));
+        assertTrue(hasher.needsRehash(LEGACY_SECRET));
+    }
+
+    @Test
+    public void cheaperHashesNeedRehash() {
+        String stored = hasher.hash("secret");
+        String[] parts = stored.split("\\$");
+        String cheaper = parts[0] + "$1000$" + parts[2] + "$" + parts[3];
+        assertTrue(hasher.needsRehash(cheaper));
+        // Still a valid scheme, just the wrong derivation for that count.
+        assertFalse(hasher.verify("secret", cheaper));
+    }
+
+    @Test
+    public void unknownOrMalformedHashesAreRejected() {
+        String stored = hasher.hash("secret");
+        String[] parts = stored.split("\\$");
+        assertFalse(hasher.verify("secret", "PBKDF2WithHmacFOO$" + parts[1] + "$" + parts[2] + "$" + parts[3]));
+        assertFalse(hasher.verify("secret", parts[0] + "$abc$" + parts[2] + "$" + parts[3]));
+        assertFalse(hasher.verify("secret", parts[0] + "$" + parts[1] + "$" + parts[2]));
+        assertTrue(hasher.needsRehash(parts[0] + "$abc$" + parts[2] + "$" + parts[3]));
+    }
+
+    @Test
+    public void unlockUpgradesLegacyPasswords() {
+        DatabaseHelper databaseHelper = new DatabaseHelper(context);
+        try {
+            SQLiteDatabase db = databaseHelper.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put("password", LEGACY_SECRET);
+            db.insert("auth", null, values);
+
+            assertFalse(databaseHelper.verifyPassword("autre"));
+            assertEquals(LEGACY_SECRET, storedPassword(db));
+            assertTrue(databaseHelper.verifyPassword("secret"));
+            String upgraded = storedPassword(db);
+            assertFalse(hasher.needsRehash(upgraded));
+            assertTrue(databaseHelper.verifyPassword("secret"));
+        } finally {
+            databaseHelper.closeForTests();
+        }
+    }
+
+    private static String storedPassword(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT password FROM auth", null);
+        String password = cursor.moveToFirst() ? cursor.getString(0) : null;
+        cursor.close();
+        return password;
+    }
+}
@@ -0,0 +1,220 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// EXPLAIN QUERY PLAN for the SQL DatabaseHelper actually runs: a cursor factory records every query the
+// helper issues, and each recorded statement is explained with its parameters left unbound. A list query must
+// walk an index in the requested order: any full table scan or temp B-tree sort fails the test.
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class QueryPlanTest {
+
+    // "SCAN messages" or "SCAN TABLE messages" without an index; virtual tables and subqueries are not tables.
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?\\w+( AS \\w+)?$");
+    // SQLiteQuery.toString() is this prefix followed by the SQL, which has no public getter.
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+    private static final int LIMIT = 30;
+
+    private final List<String> executed = new ArrayList<>();
+    private boolean recording;
+    private DatabaseHelper databaseHelper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        databaseHelper = new DatabaseHelper(context, (database, driver, editTable, query) -> {
+            if (recording) {
+                executed.add(query.toString().substring(QUERY_PREFIX.length()));
+            }
+            return new SQLiteCursor(driver, editTable, query);
+        });
+        db = databaseHelper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.closeForTests();
+    }
+
+    @Test
+    public void documentPagesWalkTheTimestampIndexes() {
+        DocumentSummary after = new DocumentSummary(7, "Facture", "Factures", 1000L, null, false, null);
+        assertIndexedInOrder(capture(() -> databaseHelper.getDocumentsPage(null, null, LIMIT)));
+        assertIndexedInOrder(capture(() -> databaseHelper.getDocumentsPage(null, after, LIMIT)));
+        assertIndexedInOrder(capture(() ->
+                databaseHelper.getDocumentsPage(Collections.singletonList("Factures"), after, LIMIT)));
+        assertIndexedInOrder(capture(() ->
+                databaseHelper.getDocumentsPage(Arrays.asList("Factures", "Banque"), after, LIMIT)));
+        assertIndexedInOrder(capture(() ->
+                databaseHelper.getDocumentsPage(Arrays.asList("Factures", "Banque"), 2 * LIMIT, LIMIT)));
+    }
+
+    @Test
+    public void messagePagesMergeHotAndArchiveIndexes() {
+        assertIndexedInOrder(capture(() -> databaseHelper.getMessagesPage(2 * LIMIT, LIMIT)));
+        assertIndexedInOrder(capture(() -> databaseHelper.getMessagesAfter(1000L, 7L, LIMIT)));
+        assertIndexedInOrder(capture(() -> databaseHelper.getMessagesPage("+33612345678", 0, LIMIT)));
+        assertIndexedInOrder(capture(() -> databaseHelper.getMessagesAfter("+33612345678", 1000L, 7L, LIMIT)));
+    }
+
+    @Test
+    public void threadListWalksTheLastDateIndex() {
+        ThreadSummary after = new ThreadSummary("+33612345678", "+33 6 12 34 56 78", 7L, "", 1000L, 1, 0, false);
+        assertIndexedInOrder(capture(() -> databaseHelper.getThreadsPage(null, LIMIT)));
+        assertIndexedInOrder(capture(() -> databaseHelper.getThreadsPage(after, LIMIT)));
+    }
+
+    @Test
+    public void syncLookupsUseTheUniqueIndexes() {
+        assertIndexedInOrder(Arrays.asList(DatabaseHelper.SQL_SELECT_MESSAGE_ID,
+                DatabaseHelper.SQL_SELECT_ARCHIVED_MESSAGE_ID, DatabaseHelper.SQL_ATTACHMENT_EXISTS));
+        assertIndexedInOrder(capture(() -> databaseHelper.getAttachmentsForMessage(1L)));
+        // Batches by id are sorted after the lookup, so only the lookup is checked.
+        assertNoFullScan(capture(() -> databaseHelper.getMessagesByIds(Arrays.asList(1L, 2L, 3L))));
+        assertNoFullScan(capture(() -> databaseHelper.getAttachmentsForMessages(Arrays.asList(1L, 2L, 3L))));
+    }
+
+    @Test
+    public void maintenanceChunksWalkTheDateIndex() {
+        assertIndexedInOrder(capture(() -> databaseHelper.archiveMessagesChunk(1000L, 500, false)));
+    }
+
+    // Ranking is computed per hit, so search results are sorted; only the lookups behind MATCH are checked.
+    @Test
+    public void searchJoinsThroughTheFullTextIndexes() {
+        assertNoFullScan(capture(() -> databaseHelper.searchDocuments("facture", null, 0, LIMIT)));
+        assertNoFullScan(capture(() ->
+                databaseHelper.searchDocuments("facture", Arrays.asList("Factures", "Banque"), 0, LIMIT)));
+        assertNoFullScan(capture(() -> databaseHelper.searchMessages("facture", 0, LIMIT)));
+    }
+
+    // The timeline breaks timestamp ties on a per-branch constant kind, which no index can order, so the outer
+    // merge sorts. Each branch still walks its date index in order and stops after one page, so the sort only
+    // ever sees three pages of rows.
+    @Test
+    public void timelineBranchesWalkTheirDateIndexes() {
+        assertBranchesIndexedInOrder(capture(() -> databaseHelper.getTimelinePage(0, LIMIT)));
+        assertBranchesIndexedInOrder(capture(() -> databaseHelper.getTimelinePage(2 * LIMIT, LIMIT)));
+        assertBranchesIndexedInOrder(capture(() ->
+                databaseHelper.getTimelineAfter(1000L, TimelineEntry.KIND_MESSAGE, 7L, LIMIT)));
+    }
+
+    private List<String> capture(Runnable call) {
+        executed.clear();
+        recording = true;
+        try {
+            call.run();
+        } finally {
+            recording = false;
+        }
+        assertFalse("No query recorded", executed.isEmpty());
+        return new ArrayList<>(executed);
+    }
+
+    private void assertIndexedInOrder(List<String> statements) {
+        for (String sql : statements) {
+            List<Step> plan = explain(sql);
+            assertNoFullScan(plan, sql);
+            for (Step step : plan) {
+                assertFalse("Sort in plan of " + sql + ": " + plan, step.detail.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    private void assertNoFullScan(List<String> statements) {
+        for (String sql : statements) {
+            assertNoFullScan(explain(sql), sql);
+        }
+    }
+
+    // Subqueries show up as CO-ROUTINE or MATERIALIZE steps; nothing under them may sort.
+    private void assertBranchesIndexedInOrder(List<String> statements) {
+        for (String sql : statements) {
+            List<Step> plan = explain(sql);
+            assertNoFullScan(plan, sql);
+            int branches = 0;
+            for (Step step : plan) {
+                if (step.detail.startsWith("CO-ROUTINE") || step.detail.startsWith("MATERIALIZE")) {
+                    branches++;
+                    for (Step child : descendants(plan, step.id)) {
+                        assertFalse("Sort in branch of " + sql + ": " + plan, child.detail.contains("TEMP B-TREE"));
+                    }
+                }
+            }
+            assertEquals("Branches in plan of " + sql + ": " + plan, 3, branches);
+        }
+    }
+
+    private void assertNoFullScan(List<Step> plan, String sql) {
+        assertFalse("Empty plan for " + sql, plan.isEmpty());
+        for (Step step : plan) {
+            if (FULL_SCAN.matcher(step.detail).matches()) {
+                fail("Full scan in plan of " + sql + ": " + plan);
+            }
+        }
+    }
+
+    private static List<Step> descendants(List<Step> plan, int parentId) {
+        List<Step> found = new ArrayList<>();
+        for (Step step : plan) {
+            if (step.parent == parentId) {
+                found.add(step);
+                found.addAll(descendants(plan, step.id));
+            }
+        }
+        return found;
+    }
+
+    private List<Step> explain(String sql) {
+        List<Step> plan = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        int idIndex = cursor.getColumnIndexOrThrow("id");
+        int parentIndex = cursor.getColumnIndexOrThrow("parent");
+        int detailIndex = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.add(new Step(cursor.getInt(idIndex), cursor.getInt(parentIndex), cursor.getString(detailIndex)));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    private static final class Step {
+        final int id;
+        final int parent;
+        final String detail;
+
+        Step(int id, int parent, String detail) {
+            this.id = id;
+            this.parent = parent;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return detail;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class SearchTest {
+
+    private static final int VAULT_SIZE = 100_000;
+    private static final long MAX_MEDIAN_MS = 50L;
+    private static final String[] QUERIES = {"fact", "banq", "livr", "rendez", "medecin", "colis", "anniv",
+            "impots", "assur", "ecole"};
+
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        databaseHelper = new DatabaseHelper(context);
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.closeForTests();
+    }
+
+    @Test
+    public void matchExpressionPrefixesEveryToken() {
+        assertEquals("fact* 2023*", SearchUtils.toMatchExpression("  fact, 2023! "));
+        assertNull(SearchUtils.toMatchExpression(" -- "));
+    }
+
+    @Test
+    public void messageSearchMatchesPrefixesOfEveryTerm() {
+        databaseHelper.upsertMessages(Arrays.asList(
+                new VaultMessage(1, MessageSyncManager.PROVIDER_SMS, "+33611111111", 1_000L,
+                        "Votre facture EDF est disponible", 1, false),
+                new VaultMessage(2, MessageSyncManager.PROVIDER_SMS, "+33622222222", 2_000L,
+                        "Le colis sera livré demain", 1, false),
+                new VaultMessage(3, MessageSyncManager.PROVIDER_SMS, "+33633333333", 3_000L,
+                        "Facturation du colis en cours", 1, false)));
+
+        assertEquals(2, databaseHelper.searchMessages("fact", 0, 10).size());
+        List<MessageSummary> both = databaseHelper.searchMessages("fact col", 0, 10);
+        assertEquals(1, both.size());
+        assertEquals(3_000L, both.get(0).getDate());
+        assertTrue(both.get(0).getPreview().contains(SearchUtils.HIGHLIGHT_START));
+        // unicode61 folds diacritics, so "livre" finds "livré".
+        assertEquals(1, databaseHelper.searchMessages("livre", 0, 10).size());
+        assertEquals(2, databaseHelper.countMessageSearchHits("colis"));
+    }
+
+    @Test
+    public void documentSearchFindsWordsPastTheSideFilePreview() {
+        databaseHelper.setContentInlineLimit(64);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            content.append("remplissage ");
+        }
+        content.append("quittance");
+        Document document = new Document();
+        document.setTitle("Bail");
+        document.setCategory("Logement");
+        document.setTimestamp(1_000L);
+        document.setContent(content.toString());
+        long id = databaseHelper.addDocument(document);
+
+        List<DocumentSummary> hits = databaseHelper.searchDocuments("quitt", null, 0, 10);
+        assertEquals(1, hits.size());
+        assertEquals(id, hits.get(0).getId());
+        assertEquals(1, databaseHelper.searchDocuments("bail quitt", Collections.singletonList("Logement"), 0, 10)
+                .size());
+        assertEquals(0, databaseHelper.searchDocuments("quitt", Collections.singletonList("Banque"), 0, 10).size());
+    }
+
+    // Content over the limit but shorter than the preview goes to a side file and is kept whole in the row.
+    @Test
+    public void contentShorterThanThePreviewCanStillGoToASideFile() {
+        databaseHelper.setContentInlineLimit(64);
+        String content = "Quittance de loyer pour le mois de mars, reglee par virement le cinq du mois.";
+        Document document = new Document();
+        document.setTitle("Quittance");
+        document.setCategory("Logement");
+        document.setTimestamp(1_000L);
+        document.setContent(content);
+        long id = databaseHelper.addDocument(document);
+
+        Document stored = databaseHelper.getDocument((int) id);
+        assertNotNull(stored.getContentFile());
+        assertEquals(content, stored.getContent());
+        assertEquals(1, databaseHelper.searchDocuments("virement", null, 0, 10).size());
+    }
+
+    @Test
+    public void searchStaysUnderFiftyMillisecondsOnALargeVault() {
+        databaseHelper.upsertMessages(SyntheticVault.messages(VAULT_SIZE));
+        // Warm the page cache the way a first keystroke would.
+        databaseHelper.searchMessages(QUERIES[0], 0, 20);
+
+        long[] nanos = new long[QUERIES.length];
+        for (int i = 0; i < QUERIES.length; i++) {
+            long start = System.nanoTime();
+            List<MessageSummary> hits = databaseHelper.searchMessages(QUERIES[i], 0, 20);
+            nanos[i] = System.nanoTime() - start;
+            assertEquals(QUERIES[i], 20, hits.size());
+        }
+        System.out.println("searchMessages, first page of 20 over " + VAULT_SIZE + " messages: "
+                + SyntheticVault.describe(nanos));
+        long medianMs = SyntheticVault.percentile(nanos, 0.5) / 1_000_000L;
+        assertTrue("median search " + medianMs + " ms", medianMs < MAX_MEDIAN_MS);
+    }
+}
@@ -0,0 +1,90 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.List;
+
+// Synthetic 10k-message sync: per-call latency through the shared connection, against the open/close
+// per call that every DatabaseHelper method used to do.
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class SharedConnectionBenchmarkTest {
+
+    private static final int MESSAGE_COUNT = 10_000;
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        databaseHelper = new DatabaseHelper(context);
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.closeForTests();
+    }
+
+    @Test
+    public void getInstanceReturnsOneHelperPerProcess() {
+        DatabaseHelper shared = DatabaseHelper.getInstance(context);
+        try {
+            assertSame(shared, DatabaseHelper.getInstance(context));
+        } finally {
+            shared.closeForTests();
+        }
+    }
+
+    @Test
+    public void sharedConnectionBeatsOpenClosePerCall() {
+        List<VaultMessage> messages = SyntheticVault.messages(MESSAGE_COUNT);
+        long[] shared = new long[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            long start = System.nanoTime();
+            databaseHelper.upsertMessage(messages.get(i));
+            shared[i] = System.nanoTime() - start;
+        }
+
+        // Same rows under new provider ids, written the old way into the same file.
+        String path = context.getDatabasePath(databaseHelper.getDatabaseName()).getPath();
+        List<VaultMessage> reopened = SyntheticVault.messages(MESSAGE_COUNT + 1, MESSAGE_COUNT);
+        long[] perCall = new long[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            VaultMessage message = reopened.get(i);
+            long start = System.nanoTime();
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+            ContentValues values = new ContentValues();
+            values.put("providerId", message.getProviderId());
+            values.put("providerType", message.getProviderType());
+            values.put("address", message.getAddress());
+            values.put("date", message.getDate());
+            values.put("body", message.getBody());
+            values.put("boxType", message.getBoxType());
+            values.put("hasAttachments", 0);
+            db.insert("messages", null, values);
+            db.close();
+            perCall[i] = System.nanoTime() - start;
+        }
+
+        System.out.println("upsertMessage, shared connection: " + SyntheticVault.describe(shared));
+        System.out.println("insert, open/close per call:      " + SyntheticVault.describe(perCall));
+        assertEquals(2 * MESSAGE_COUNT, databaseHelper.getMessageCount());
+        assertTrue(SyntheticVault.mean(shared) < SyntheticVault.mean(perCall));
+    }
+}
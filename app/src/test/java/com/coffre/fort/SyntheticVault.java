@@ -0,0 +1,94 @@
+package com.coffre.fort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic fake SMS history shared by the database tests and benchmarks.
+final class SyntheticVault {
+
+    static final long START_DATE = 1_600_000_000_000L;
+    private static final String[] TOPIC_WORDS = {
+            "rendez-vous", "facture", "banque", "colis", "livraison", "code", "medecin", "train",
+            "billet", "loyer", "reunion", "anniversaire", "impots", "assurance", "garage", "ecole"
+    };
+    private static final int ADDRESS_COUNT = 200;
+    // Topic words are drawn among thousands of filler words, so each one lands in a few tenths of a percent
+    // of the messages, closer to a real inbox than a tiny vocabulary where every term hits half the vault.
+    private static final String[] VOCABULARY = vocabulary(4_000);
+
+    private SyntheticVault() {
+    }
+
+    static List<VaultMessage> messages(int count) {
+        return messages(1, count);
+    }
+
+    // Provider ids firstProviderId .. firstProviderId + count - 1, one minute apart, spread over 200 contacts.
+    static List<VaultMessage> messages(long firstProviderId, int count) {
+        Random random = new Random(firstProviderId);
+        List<VaultMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long providerId = firstProviderId + i;
+            messages.add(new VaultMessage(providerId, MessageSyncManager.PROVIDER_SMS, address(providerId),
+                    START_DATE + providerId * 60_000L, body(random, providerId), 1, false));
+        }
+        return messages;
+    }
+
+    static String address(long providerId) {
+        return String.format("+33 6 12 34 %02d %02d", (providerId % ADDRESS_COUNT) / 100, providerId % 100);
+    }
+
+    static String body(Random random, long providerId) {
+        StringBuilder body = new StringBuilder("message ").append(providerId);
+        for (int i = 0; i < 12; i++) {
+            body.append(' ').append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return body.toString();
+    }
+
+    private static String[] vocabulary(int fillerCount) {
+        String consonants = "bdfgklmnprstvz";
+        String vowels = "aeiou";
+        Random random = new Random(42L);
+        String[] vocabulary = Arrays.copyOf(TOPIC_WORDS, TOPIC_WORDS.length + fillerCount);
+        for (int i = TOPIC_WORDS.length; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int syllable = 0; syllable < 3; syllable++) {
+                word.append(consonants.charAt(random.nextInt(consonants.length())))
+                        .append(vowels.charAt(random.nextInt(vowels.length())));
+            }
+            vocabulary[i] = word.toString();
+        }
+        return vocabulary;
+    }
+
+    // Mean, median and 99th percentile of per-operation timings, in microseconds.
+    static String describe(long[] nanos) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long value : sorted) {
+            total += value;
+        }
+        return String.format("mean %.1f us, p50 %.1f us, p99 %.1f us",
+                total / 1000.0 / sorted.length, sorted[sorted.length / 2] / 1000.0,
+                sorted[(int) (sorted.length * 0.99)] / 1000.0);
+    }
+
+    static long percentile(long[] nanos, double fraction) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    static double mean(long[] nanos) {
+        long total = 0;
+        for (long value : nanos) {
+            total += value;
+        }
+        return (double) total / nanos.length;
+    }
+}
@@ -0,0 +1,124 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class UpsertMessagesTest {
+
+    private static final int IMPORT_COUNT = 50_000;
+    private static final int PER_ROW_COUNT = 5_000;
+
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        databaseHelper = new DatabaseHelper(context);
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.closeForTests();
+    }
+
+    @Test
+    public void insertsNewAndUpdatesChangedMessages() {
+        assertUpsertBehaviour();
+    }
+
+    // Before Android 11 the bulk path updates first and inserts the rows the update did not find.
+    @Test
+    @Config(sdk = 28)
+    public void legacyPathBehavesLikeNativeUpsert() {
+        assertUpsertBehaviour();
+    }
+
+    @Test
+    public void resyncNeverClearsTheAttachmentFlag() {
+        VaultMessage message = SyntheticVault.messages(1).get(0);
+        long localId = databaseHelper.upsertMessage(message);
+        databaseHelper.updateMessageAttachmentFlag(localId, true);
+
+        databaseHelper.upsertMessages(Collections.singletonList(message));
+        assertTrue(databaseHelper.getMessage(localId).hasAttachments());
+        databaseHelper.upsertMessage(message);
+        assertTrue(databaseHelper.getMessage(localId).hasAttachments());
+    }
+
+    @Test
+    public void archivingEverythingKeepsTheMessageStats() {
+        List<VaultMessage> messages = SyntheticVault.messages(10);
+        databaseHelper.upsertMessages(messages);
+        long newest = messages.get(messages.size() - 1).getDate();
+
+        assertEquals(10, databaseHelper.archiveMessagesChunk(Long.MAX_VALUE, 100, true));
+        CategoryStats stats = databaseHelper.getCategoryStats().get(DatabaseHelper.STATS_KEY_MESSAGES);
+        assertEquals(10, stats.getItemCount());
+        assertEquals(newest, stats.getNewestTimestamp());
+    }
+
+    @Test
+    public void bulkImportNumbers() {
+        List<VaultMessage> perRow = SyntheticVault.messages(IMPORT_COUNT + 1, PER_ROW_COUNT);
+        long start = System.nanoTime();
+        for (VaultMessage message : perRow) {
+            databaseHelper.upsertMessage(message);
+        }
+        long perRowNanos = System.nanoTime() - start;
+
+        List<VaultMessage> messages = SyntheticVault.messages(IMPORT_COUNT);
+        start = System.nanoTime();
+        int written = databaseHelper.upsertMessages(messages);
+        long importNanos = System.nanoTime() - start;
+
+        // A resync of the same rows goes through the no-op branch of the upsert.
+        start = System.nanoTime();
+        databaseHelper.upsertMessages(messages);
+        long resyncNanos = System.nanoTime() - start;
+
+        double perRowRate = PER_ROW_COUNT * 1e9 / perRowNanos;
+        double importRate = IMPORT_COUNT * 1e9 / importNanos;
+        System.out.println(String.format("upsertMessage, one autocommit per row: %d rows in %d ms (%.0f rows/s)",
+                PER_ROW_COUNT, perRowNanos / 1_000_000L, perRowRate));
+        System.out.println(String.format("upsertMessages, first import: %d rows in %d ms (%.0f rows/s)",
+                IMPORT_COUNT, importNanos / 1_000_000L, importRate));
+        System.out.println(String.format("upsertMessages, unchanged resync: %d rows in %d ms",
+                IMPORT_COUNT, resyncNanos / 1_000_000L));
+        assertEquals(IMPORT_COUNT, written);
+        assertEquals(IMPORT_COUNT + PER_ROW_COUNT, databaseHelper.getMessageCount());
+        assertTrue(importRate > perRowRate);
+    }
+
+    private void assertUpsertBehaviour() {
+        List<VaultMessage> messages = SyntheticVault.messages(1_200);
+        assertEquals(messages.size(), databaseHelper.upsertMessages(messages));
+        assertEquals(messages.size(), databaseHelper.getMessageCount());
+
+        VaultMessage original = messages.get(700);
+        VaultMessage edited = new VaultMessage(original.getProviderId(), original.getProviderType(),
+                original.getAddress(), original.getDate(), "corrige", original.getBoxType(), false);
+        databaseHelper.upsertMessages(Collections.singletonList(edited));
+        assertEquals(messages.size(), databaseHelper.getMessageCount());
+
+        long localId = databaseHelper.upsertMessage(edited);
+        assertEquals("corrige", databaseHelper.getMessage(localId).getBody());
+        assertEquals(original.getDate(), databaseHelper.getMessage(localId).getDate());
+    }
+}
@@ -0,0 +1,192 @@
+package com.coffre.fort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// One thread syncing row by row while several threads page the message list: with WAL the readers work
+// from their snapshot and never wait for the writer's transaction.
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class WalStressTest {
+
+    private static final int READER_COUNT = 4;
+    private static final int WRITE_COUNT = 5_000;
+    private static final int PAGE_SIZE = 50;
+    private static final long READ_TIMEOUT_SECONDS = 10L;
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        databaseHelper = new DatabaseHelper(context);
+        databaseHelper.upsertMessages(SyntheticVault.messages(PAGE_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.closeForTests();
+    }
+
+    @Test
+    public void databaseRunsInWalMode() {
+        assertEquals("wal", DatabaseUtils.stringForQuery(databaseHelper.getReadableDatabase(),
+                "PRAGMA journal_mode", null).toLowerCase());
+    }
+
+    @Test
+    public void checkpointTruncatesTheLog() {
+        databaseHelper.upsertMessages(SyntheticVault.messages(PAGE_SIZE + 1, 1_000));
+        File wal = new File(context.getDatabasePath(databaseHelper.getDatabaseName()).getPath() + "-wal");
+        assertTrue(wal.length() > 0);
+        databaseHelper.checkpoint();
+        assertEquals(0, wal.length());
+    }
+
+    // A new file is not created in incremental mode; the first maintenance run's VACUUM switches it without
+    // leaving WAL.
+    @Test
+    public void maintenanceSwitchesToIncrementalAutoVacuum() {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        assertTrue(databaseHelper.ensureIncrementalAutoVacuum());
+        assertEquals(2L, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+        assertFalse(databaseHelper.ensureIncrementalAutoVacuum());
+    }
+
+    @Test
+    public void readsDoNotWaitForTheWriter() throws Exception {
+        List<VaultMessage> writes = SyntheticVault.messages(PAGE_SIZE + 1, WRITE_COUNT);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<List<Long>> readTimes = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READER_COUNT; i++) {
+            List<Long> times = new ArrayList<>();
+            readTimes.add(times);
+            readers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    while (writing.get()) {
+                        long begin = System.nanoTime();
+                        List<MessageSummary> page = databaseHelper.getMessagesPage(0, PAGE_SIZE);
+                        times.add(System.nanoTime() - begin);
+                        assertEquals(PAGE_SIZE, page.size());
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "reader-" + i));
+        }
+        Thread writer = new Thread(() -> {
+            try {
+                start.await();
+                // Row by row, in autocommit, like the per-message MMS path: the worst case for readers.
+                for (VaultMessage message : writes) {
+                    databaseHelper.upsertMessage(message);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                writing.set(false);
+            }
+        }, "writer");
+
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        writer.join(TimeUnit.MINUTES.toMillis(5));
+        long writeNanos = System.nanoTime() - begin;
+        for (Thread reader : readers) {
+            reader.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        List<Long> all = new ArrayList<>();
+        for (List<Long> times : readTimes) {
+            all.addAll(times);
+        }
+        long[] nanos = new long[all.size()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = all.get(i);
+        }
+        System.out.println(String.format("%d writes in %d ms while %d readers ran %d pages: %s",
+                WRITE_COUNT, writeNanos / 1_000_000L, READER_COUNT, nanos.length, SyntheticVault.describe(nanos)));
+        assertEquals(PAGE_SIZE + WRITE_COUNT, databaseHelper.getMessageCount());
+        // Latency is only reported: wall-clock bounds are noise on shared runners. readsProceedDuringAnOpenWrite
+        // checks the property itself.
+        assertTrue(nanos.length > 0);
+    }
+
+    @Test
+    public void readsProceedDuringAnOpenWrite() throws Exception {
+        CountDownLatch inTransaction = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            SQLiteDatabase db = databaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                databaseHelper.upsertMessage(SyntheticVault.messages(PAGE_SIZE + 1, 1).get(0));
+                inTransaction.countDown();
+                release.await();
+                db.setTransactionSuccessful();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                db.endTransaction();
+            }
+        }, "writer");
+        writer.start();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(inTransaction.await(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            // Would time out if the reader had to wait for the writer's lock.
+            Future<Integer> read = reader.submit(() -> databaseHelper.getMessagesPage(0, PAGE_SIZE).size());
+            assertEquals(PAGE_SIZE, (int) read.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            // The uncommitted row is not part of the reader's snapshot.
+            Future<Integer> count = reader.submit(() -> databaseHelper.getMessageCount());
+            assertEquals(PAGE_SIZE, (int) count.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            writer.join(TimeUnit.SECONDS.toMillis(READ_TIMEOUT_SECONDS));
+            reader.shutdown();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(PAGE_SIZE + 1, databaseHelper.getMessageCount());
+    }
+}